@@ -0,0 +1,125 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.print.PageRange;
+import android.print.PrintAttributes;
+import android.print.PrintDocumentAdapter;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Delegates to another adapter and cancels its layout and write passes
+ * once the client cancels the job. The wrapped adapters stop their work
+ * when the cancellation signal of the framework fires, so this adapter
+ * fires the signals of the passes in progress itself.
+ */
+class CancellableAdapter extends PrintDocumentAdapter
+{
+    // The adapter to cancel
+    private final @NonNull PrintDocumentAdapter delegate;
+
+    // The ticket of the job
+    private final @NonNull PrintTicket ticket;
+
+    // Cancels the passes in progress
+    private final @NonNull Runnable listener = this::cancelPasses;
+
+    // The signals of the layout and write pass in progress
+    private volatile @Nullable CancellationSignal layoutSignal, writeSignal;
+
+    /**
+     * Constructor
+     *
+     * @param adapter The adapter to cancel.
+     * @param ticket  The ticket of the job.
+     */
+    CancellableAdapter (@NonNull PrintDocumentAdapter adapter, @NonNull PrintTicket ticket)
+    {
+        this.delegate = adapter;
+        this.ticket   = ticket;
+    }
+
+    @Override
+    public void onStart()
+    {
+        ticket.onCancel(listener);
+        delegate.onStart();
+    }
+
+    @Override
+    public void onLayout (PrintAttributes oldAttributes,
+                          PrintAttributes newAttributes,
+                          CancellationSignal cancellationSignal,
+                          LayoutResultCallback callback,
+                          Bundle bundle)
+    {
+        if (ticket.isCancelled())
+        {
+            callback.onLayoutCancelled();
+            return;
+        }
+
+        layoutSignal = cancellationSignal;
+
+        delegate.onLayout(oldAttributes, newAttributes, cancellationSignal, callback, bundle);
+    }
+
+    @Override
+    public void onWrite (PageRange[] range,
+                         ParcelFileDescriptor dest,
+                         CancellationSignal cancellationSignal,
+                         WriteResultCallback callback)
+    {
+        if (ticket.isCancelled())
+        {
+            callback.onWriteCancelled();
+            return;
+        }
+
+        writeSignal = cancellationSignal;
+
+        delegate.onWrite(range, dest, cancellationSignal, callback);
+    }
+
+    @Override
+    public void onFinish()
+    {
+        ticket.removeOnCancel(listener);
+        delegate.onFinish();
+    }
+
+    /**
+     * Fires the signals of the passes in progress.
+     */
+    private void cancelPasses()
+    {
+        CancellationSignal layout = layoutSignal;
+        CancellationSignal write  = writeSignal;
+
+        if (layout != null) layout.cancel();
+        if (write != null) write.cancel();
+    }
+}
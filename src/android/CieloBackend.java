@@ -0,0 +1,316 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.List;
+
+import cielo.sdk.printer.PrinterManager;
+
+/**
+ * Prints the receipts on the thermal printer of the Cielo LIO.
+ *
+ * Once the printer stopped answering, the SDK session gets dropped so
+ * that the next job opens a new one instead of waiting on the same
+ * stuck binding.
+ */
+class CieloBackend implements PrintBackend
+{
+    // The SDK printer session shared by all jobs
+    private static PrinterManager session;
+
+    // The application context
+    private final @NonNull Context context;
+
+    // The max number of elements in flight
+    private final int window;
+
+    // If the window adapts to the ack latency
+    private final boolean adaptive;
+
+    // The max time in ms to wait for the ack of an element
+    private final long lineTimeout;
+
+    // The max time in ms a receipt may take
+    private final long jobTimeout;
+
+    // If the receipts get sent as one 1-bit image
+    private final boolean raster;
+
+    // The listener of the receipt sent through append
+    private @Nullable ReceiptListener stream;
+
+    // The SDK printer session the receipt sent through append uses
+    private @Nullable PrinterManager streamPrinter;
+
+    // The job timeout of the receipt sent through append
+    private @Nullable PrintWatchdog.Timeout streamDeadline;
+
+    // The number of elements acknowledged by the completed receipts
+    private int printed;
+
+    /**
+     * Constructor
+     *
+     * @param context     The application context.
+     * @param window      The max number of elements in flight.
+     * @param adaptive    If the window adapts to the ack latency.
+     * @param lineTimeout The max time in ms to wait for an ack, 0 to
+     *                    wait forever.
+     * @param jobTimeout  The max time in ms a receipt may take, 0 for
+     *                    no limit.
+     * @param raster      If the receipts get sent as one 1-bit image.
+     */
+    CieloBackend (@NonNull Context context, int window, boolean adaptive,
+                  long lineTimeout, long jobTimeout, boolean raster)
+    {
+        this.context     = context;
+        this.window      = window;
+        this.adaptive    = adaptive;
+        this.lineTimeout = lineTimeout;
+        this.jobTimeout  = jobTimeout;
+        this.raster      = raster;
+
+        getSession(context);
+    }
+
+    /**
+     * Returns the SDK printer session and opens it on first use.
+     *
+     * @param context The application context.
+     */
+    @NonNull
+    static synchronized PrinterManager getSession (@NonNull Context context)
+    {
+        if (session == null)
+        {
+            session = new PrinterManager(context.getApplicationContext());
+        }
+
+        return session;
+    }
+
+    /**
+     * Drops the SDK printer session if the printer stopped answering, so
+     * that the next call to getSession opens a new one.
+     *
+     * @param stale The session that stopped answering.
+     */
+    private static synchronized void recycleSession (@NonNull PrinterManager stale)
+    {
+        if (session == stale)
+        {
+            session = null;
+        }
+    }
+
+    @NonNull
+    @Override
+    public String getName()
+    {
+        return "cielo";
+    }
+
+    /**
+     * Sends the ops to the printer and waits until all of them have been
+     * acknowledged. No more than window ops are in flight at once. Stops
+     * sending further ops once the job gets cancelled.
+     *
+     * @param ops The compiled elements of the receipt.
+     *
+     * @return null on success or the error reported by the printer
+     *         prefixed with the element that failed.
+     */
+    @Nullable
+    @Override
+    public String print (@NonNull List<ReceiptOp> ops) throws Exception
+    {
+        ReceiptListener listener       = new ReceiptListener(window, adaptive, lineTimeout);
+        PrinterManager printer         = getSession(context);
+        PrintTicket ticket             = PrintTicket.current();
+        PrintWatchdog.Timeout deadline = watch(listener);
+        Runnable cancel                = listener::cancel;
+
+        ticket.onCancel(cancel);
+
+        try {
+            send(printer, listener, ops);
+
+            return listener.await();
+        } finally {
+            ticket.removeOnCancel(cancel);
+            release(printer, listener, deadline);
+        }
+    }
+
+    /**
+     * Sends the ops to the printer without waiting for the acks of the
+     * last window. The window spans all chunks of the receipt.
+     *
+     * @param ops The compiled elements of the chunk.
+     *
+     * @return null on success or the error reported by the printer so far.
+     */
+    @Nullable
+    @Override
+    public String append (@NonNull List<ReceiptOp> ops) throws Exception
+    {
+        if (stream == null)
+        {
+            stream         = new ReceiptListener(window, adaptive, lineTimeout);
+            streamPrinter  = getSession(context);
+            streamDeadline = watch(stream);
+
+            PrintTicket.current().onCancel(stream::cancel);
+        }
+
+        if (stream.getError() == null)
+        {
+            send(streamPrinter, stream, ops);
+        }
+
+        if (stream.isTimedOut())
+        {
+            recycleSession(streamPrinter);
+        }
+
+        return stream.getError();
+    }
+
+    /**
+     * Waits until the printer acknowledged all chunks.
+     *
+     * @return null on success or the error reported by the printer.
+     */
+    @Nullable
+    @Override
+    public String finish() throws Exception
+    {
+        ReceiptListener listener = stream;
+
+        if (listener == null)
+            return null;
+
+        stream = null;
+
+        try {
+            return listener.await();
+        } finally {
+            release(streamPrinter, listener, streamDeadline);
+        }
+    }
+
+    /**
+     * Stops the receipt sent through append and disarms its job timeout.
+     */
+    @Override
+    public void abort()
+    {
+        ReceiptListener listener = stream;
+
+        if (listener == null)
+            return;
+
+        stream = null;
+
+        listener.cancel();
+        release(streamPrinter, listener, streamDeadline);
+    }
+
+    /**
+     * Returns the number of elements the printer acknowledged, including
+     * those of the receipt sent through append so far.
+     */
+    @Override
+    public int getPrinted()
+    {
+        ReceiptListener listener = stream;
+
+        return printed + (listener != null ? listener.getPrinted() : 0);
+    }
+
+    /**
+     * Sends the ops element by element or as one raster image.
+     *
+     * @param printer  The SDK session to print with.
+     * @param listener The listener of the receipt.
+     * @param ops      The compiled elements to send.
+     */
+    private void send (@NonNull PrinterManager printer,
+                       @NonNull ReceiptListener listener,
+                       @NonNull List<ReceiptOp> ops) throws IOException
+    {
+        ReceiptPipeline pipeline = new ReceiptPipeline(context, printer, listener);
+
+        if (raster) {
+            pipeline.runRaster(ops);
+        } else {
+            pipeline.run(ops);
+        }
+    }
+
+    /**
+     * Arms the job timeout of the receipt.
+     *
+     * @param listener The listener of the receipt.
+     *
+     * @return null if the receipt has no time limit.
+     */
+    @Nullable
+    private PrintWatchdog.Timeout watch (@NonNull ReceiptListener listener)
+    {
+        if (jobTimeout <= 0)
+            return null;
+
+        return PrintWatchdog.getInstance().schedule(jobTimeout,
+                () -> listener.expire("Tempo limite de impressão excedido"));
+    }
+
+    /**
+     * Disarms the job timeout, counts the acknowledged elements and drops
+     * the SDK session if the printer stopped answering.
+     *
+     * @param printer  The SDK session the receipt used.
+     * @param listener The listener of the receipt.
+     * @param deadline The job timeout, null if none.
+     */
+    private void release (@NonNull PrinterManager printer,
+                          @NonNull ReceiptListener listener,
+                          @Nullable PrintWatchdog.Timeout deadline)
+    {
+        printed += listener.getPrinted();
+
+        if (deadline != null)
+        {
+            deadline.cancel();
+        }
+
+        if (listener.isTimedOut())
+        {
+            recycleSession(printer);
+        }
+    }
+}
@@ -0,0 +1,532 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.pdf.PdfDocument;
+import android.graphics.pdf.PdfRenderer;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.print.PageRange;
+import android.print.PrintAttributes;
+import android.print.PrintDocumentAdapter;
+import android.print.PrintDocumentInfo;
+import android.print.pdf.PrintedPdfDocument;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.print.PrintHelper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static android.os.Build.VERSION.SDK_INT;
+import static android.print.PrintDocumentInfo.CONTENT_TYPE_DOCUMENT;
+
+/**
+ * Document adapter to print a list of images, PDF files and plain texts
+ * as one job. The parts are drawn item by item into one PdfDocument,
+ * which keeps the drawings of all pages until it gets written.
+ *
+ * Android offers no way to merge PDF files, so their pages get rendered
+ * into bitmaps and lose their vector quality. Each page gets rendered
+ * only when it is written, kept as RGB_565 and recycled once the page is
+ * finished, so the heap holds one rendered page at a time however long
+ * the PDF file is.
+ */
+class CompositeAdapter extends PrintDocumentAdapter
+{
+    // Resolution in dots per inch PDF pages get rendered with
+    private static final int DPI = 150;
+
+    // One item of the job
+    interface Part
+    {
+        /**
+         * Splits the part into pages of the given size.
+         *
+         * @return The number of pages.
+         */
+        int layout (int width, int height) throws IOException;
+
+        /**
+         * Draws the page of the part onto the canvas.
+         *
+         * @return The bitmaps to recycle once the page is finished.
+         */
+        @NonNull List<Bitmap> draw (int page, @NonNull Canvas canvas,
+                                    int width, int height) throws IOException;
+
+        /**
+         * Releases all resources held by the part.
+         */
+        void release();
+    }
+
+    // The application context
+    private final @NonNull Context context;
+
+    // The name of the print job
+    private final @NonNull String jobName;
+
+    // The items to print
+    private final @NonNull List<Part> parts;
+
+    // The callback to inform once the job is done
+    private final @NonNull PrintHelper.OnPrintFinishCallback callback;
+
+    // The attributes of the last layout
+    private PrintAttributes attributes;
+
+    // The first page of each part and the total page count at the end
+    private int[] offsets;
+
+    /**
+     * Constructor
+     *
+     * @param context  The application context.
+     * @param jobName  The name of the print job.
+     * @param parts    The items to print.
+     * @param callback The callback to inform once the job is done.
+     */
+    CompositeAdapter (@NonNull Context context, @NonNull String jobName,
+                      @NonNull List<Part> parts,
+                      @NonNull PrintHelper.OnPrintFinishCallback callback)
+    {
+        this.context  = context;
+        this.jobName  = jobName;
+        this.parts    = parts;
+        this.callback = callback;
+    }
+
+    /**
+     * Resolves the file://, res://, base64:// and content:// uris and plain texts
+     * into parts.
+     *
+     * @param items   The list of items to print.
+     * @param context The application context.
+     *
+     * @return The resolved parts.
+     *
+     * @throws IOException If an item cannot be printed or the list is empty.
+     */
+    @NonNull
+    static List<Part> resolve (@NonNull List<String> items,
+                               @NonNull Context context) throws IOException
+    {
+        List<Part> parts = new ArrayList<>(items.size());
+
+        if (items.isEmpty())
+            throw new IOException("Nenhum item para imprimir");
+
+        for (int i = 0; i < items.size(); i++)
+        {
+            String item = items.get(i);
+            Part part   = null;
+
+            switch (ContentCheck.check(item, context).type)
+            {
+                case IMAGE:
+                    part = ImagePart.create(item, context);
+                    break;
+                case PDF:
+                    if (SDK_INT >= 21) part = PdfPart.create(item, context);
+                    break;
+                case PLAIN:
+                    part = new TextPart(ReceiptRenderer.forText(context, item, 12));
+                    break;
+            }
+
+            if (part == null)
+            {
+                for (Part resolved : parts)
+                {
+                    resolved.release();
+                }
+
+                throw new IOException("Item " + i + ": formato não suportado");
+            }
+
+            parts.add(part);
+        }
+
+        return parts;
+    }
+
+    @Override
+    public void onLayout (PrintAttributes oldAttributes,
+                          PrintAttributes newAttributes,
+                          CancellationSignal cancellationSignal,
+                          LayoutResultCallback callback,
+                          Bundle bundle)
+    {
+        if (cancellationSignal.isCanceled())
+        {
+            callback.onLayoutCancelled();
+            return;
+        }
+
+        Rect content    = ReceiptAdapter.getContentRect(newAttributes);
+        boolean changed = !newAttributes.equals(attributes);
+        int[] pages     = new int[parts.size() + 1];
+
+        try {
+            for (int i = 0; i < parts.size(); i++)
+            {
+                pages[i + 1] = pages[i] + parts.get(i).layout(content.width(), content.height());
+            }
+        } catch (IOException e) {
+            callback.onLayoutFailed(e.getMessage());
+            return;
+        }
+
+        if (pages[parts.size()] == 0)
+        {
+            callback.onLayoutFailed("Nenhuma página para imprimir");
+            return;
+        }
+
+        attributes = newAttributes;
+        offsets    = pages;
+
+        PrintDocumentInfo pdi = new PrintDocumentInfo.Builder(jobName)
+                .setContentType(CONTENT_TYPE_DOCUMENT)
+                .setPageCount(pages[parts.size()])
+                .build();
+
+        callback.onLayoutFinished(pdi, changed);
+    }
+
+    @Override
+    public void onWrite (PageRange[] range,
+                         ParcelFileDescriptor dest,
+                         CancellationSignal cancellationSignal,
+                         WriteResultCallback callback)
+    {
+        PrintedPdfDocument pdf  = new PrintedPdfDocument(context, attributes);
+        List<PageRange> written = new ArrayList<>();
+
+        try {
+            for (int p = 0; p < parts.size(); p++)
+            {
+                Part part = parts.get(p);
+
+                for (int i = offsets[p]; i < offsets[p + 1]; i++)
+                {
+                    if (cancellationSignal.isCanceled())
+                    {
+                        callback.onWriteCancelled();
+                        return;
+                    }
+
+                    if (!ReceiptAdapter.contains(range, i))
+                        continue;
+
+                    PdfDocument.Page page = pdf.startPage(i);
+                    Canvas canvas         = page.getCanvas();
+                    Rect content          = page.getInfo().getContentRect();
+
+                    canvas.translate(content.left, content.top);
+
+                    List<Bitmap> garbage = part.draw(i - offsets[p], canvas,
+                            content.width(), content.height());
+
+                    pdf.finishPage(page);
+
+                    for (Bitmap bitmap : garbage)
+                    {
+                        bitmap.recycle();
+                    }
+
+                    written.add(new PageRange(i, i));
+                }
+            }
+
+            FileOutputStream output = new FileOutputStream(dest.getFileDescriptor());
+
+            pdf.writeTo(output);
+            PrintIO.close(output);
+        } catch (IOException e) {
+            callback.onWriteFailed(e.getMessage());
+            return;
+        } finally {
+            pdf.close();
+        }
+
+        callback.onWriteFinished(written.toArray(new PageRange[0]));
+    }
+
+    /**
+     * Releases the parts and invokes the callback.
+     */
+    @Override
+    public void onFinish ()
+    {
+        super.onFinish();
+
+        for (Part part : parts)
+        {
+            part.release();
+        }
+
+        callback.onFinish();
+    }
+
+    /**
+     * An image fitted into one page.
+     */
+    private static final class ImagePart implements Part
+    {
+        private final @NonNull File file;
+        private final boolean temporary;
+        private final int width, height;
+
+        private ImagePart (@NonNull File file, boolean temporary, int width, int height)
+        {
+            this.file      = file;
+            this.temporary = temporary;
+            this.width     = width;
+            this.height    = height;
+        }
+
+        @Nullable
+        static Part create (@NonNull String item, @NonNull Context context)
+        {
+            File file                    = PrintContent.spool(item, context);
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+
+            boolean temporary            = !PrintContent.isLocalFile(item);
+
+            if (file == null)
+                return null;
+
+            bounds.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(file.getPath(), bounds);
+
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0)
+            {
+                if (temporary) file.delete();
+                return null;
+            }
+
+            return new ImagePart(file, temporary, bounds.outWidth, bounds.outHeight);
+        }
+
+        @Override
+        public int layout (int width, int height)
+        {
+            return 1;
+        }
+
+        @NonNull
+        @Override
+        public List<Bitmap> draw (int page, @NonNull Canvas canvas,
+                                  int cw, int ch) throws IOException
+        {
+            BitmapRegionDecoder decoder;
+
+            try {
+                decoder = BitmapRegionDecoder.newInstance(file.getPath(), false);
+            } catch (IOException e) {
+                return drawDecoded(canvas, cw, ch);
+            }
+
+            try {
+                return ImageAdapter.drawFit(canvas, decoder, width, height, cw, ch);
+            } finally {
+                decoder.recycle();
+            }
+        }
+
+        /**
+         * Fallback for formats the region decoder does not support.
+         */
+        @NonNull
+        private List<Bitmap> drawDecoded (@NonNull Canvas canvas, int cw, int ch)
+                throws IOException
+        {
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            float scale                = Math.min((float) cw / width, (float) ch / height);
+
+            opts.inSampleSize = ImageAdapter.getSampleSize(width, (int) (width * scale * 2));
+
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), opts);
+
+            if (bitmap == null)
+                throw new IOException("Cannot decode " + file.getName());
+
+            int w = (int) (width * scale);
+            int h = (int) (height * scale);
+            int x = (cw - w) / 2;
+            int y = (ch - h) / 2;
+
+            canvas.drawBitmap(bitmap, null, new Rect(x, y, x + w, y + h), null);
+
+            return Collections.singletonList(bitmap);
+        }
+
+        @Override
+        public void release()
+        {
+            if (temporary)
+            {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * The pages of a PDF file rendered into bitmaps.
+     */
+    @TargetApi(21)
+    private static final class PdfPart implements Part
+    {
+        private final @NonNull File file;
+        private final boolean temporary;
+
+        private PdfPart (@NonNull File file, boolean temporary)
+        {
+            this.file      = file;
+            this.temporary = temporary;
+        }
+
+        @Nullable
+        static Part create (@NonNull String item, @NonNull Context context)
+        {
+            File file = PrintContent.spool(item, context);
+
+            return file != null ? new PdfPart(file, !PrintContent.isLocalFile(item)) : null;
+        }
+
+        @Override
+        public int layout (int width, int height) throws IOException
+        {
+            PdfRenderer renderer = open();
+
+            try {
+                return renderer.getPageCount();
+            } finally {
+                renderer.close();
+            }
+        }
+
+        @NonNull
+        @Override
+        public List<Bitmap> draw (int index, @NonNull Canvas canvas,
+                                  int cw, int ch) throws IOException
+        {
+            PdfRenderer renderer  = open();
+            PdfRenderer.Page page = renderer.openPage(index);
+
+            try {
+                float scale   = Math.min((float) cw / page.getWidth(), (float) ch / page.getHeight());
+                int w         = Math.max(1, (int) (page.getWidth() * scale * DPI / 72));
+                int h         = Math.max(1, (int) (page.getHeight() * scale * DPI / 72));
+                Bitmap argb   = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+                Matrix matrix = new Matrix();
+                Bitmap bitmap;
+
+                argb.eraseColor(Color.WHITE);
+                page.render(argb, null, null, PdfRenderer.Page.RENDER_MODE_FOR_PRINT);
+
+                // The renderer needs ARGB, the document keeps the copy
+                bitmap = argb.copy(Bitmap.Config.RGB_565, false);
+                argb.recycle();
+
+                if (bitmap == null)
+                    throw new IOException("Cannot render " + file.getName());
+
+                matrix.setScale(72f / DPI, 72f / DPI);
+                matrix.postTranslate((cw - page.getWidth() * scale) / 2,
+                                     (ch - page.getHeight() * scale) / 2);
+
+                canvas.drawBitmap(bitmap, matrix, null);
+
+                return Collections.singletonList(bitmap);
+            } finally {
+                page.close();
+                renderer.close();
+            }
+        }
+
+        @Override
+        public void release()
+        {
+            if (temporary)
+            {
+                file.delete();
+            }
+        }
+
+        @NonNull
+        private PdfRenderer open() throws IOException
+        {
+            return new PdfRenderer(ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY));
+        }
+    }
+
+    /**
+     * Plain text drawn by the receipt renderer.
+     */
+    private static final class TextPart implements Part
+    {
+        private final @NonNull ReceiptRenderer renderer;
+
+        TextPart (@NonNull ReceiptRenderer renderer)
+        {
+            this.renderer = renderer;
+        }
+
+        @Override
+        public int layout (int width, int height)
+        {
+            return renderer.layout(width, height);
+        }
+
+        @NonNull
+        @Override
+        public List<Bitmap> draw (int page, @NonNull Canvas canvas, int width, int height)
+        {
+            renderer.draw(page, canvas);
+
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void release()
+        {
+            renderer.recycle();
+        }
+    }
+}
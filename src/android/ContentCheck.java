@@ -0,0 +1,321 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import de.appplant.cordova.plugin.printer.PrintContent.ContentType;
+
+import static de.appplant.cordova.plugin.printer.PrintContent.ContentType.IMAGE;
+import static de.appplant.cordova.plugin.printer.PrintContent.ContentType.PDF;
+import static de.appplant.cordova.plugin.printer.PrintContent.ContentType.UNSUPPORTED;
+
+/**
+ * Validates the file behind an uri by its existence, size and magic bytes
+ * instead of trusting the file name. The results are cached by path and,
+ * for files on the local file system, by their modification time and size
+ * so that the print job can reuse the check done by canPrintItem. Encoded
+ * content and content:// uris cannot be validated that way and are not
+ * cached.
+ */
+final class ContentCheck
+{
+    // Number of bytes needed to detect the file type
+    private static final int HEADER_SIZE = 12;
+
+    // Results of the recent checks by path
+    private static final LruCache<String, Result> cache = new LruCache<>(64);
+
+    /**
+     * The outcome of a check.
+     */
+    static final class Result
+    {
+        // The detected content type
+        final @NonNull ContentType type;
+
+        // The modification time of the file, 0 for bundled files
+        final long modified;
+
+        // The size of the file in bytes, -1 for bundled files
+        final long length;
+
+        // The dimensions of an image, 0 if unknown
+        final int width, height;
+
+        /**
+         * Constructor
+         *
+         * @param type     The detected content type.
+         * @param modified The modification time of the file.
+         * @param length   The size of the file.
+         * @param width    The width of an image.
+         * @param height   The height of an image.
+         */
+        Result (@NonNull ContentType type, long modified, long length,
+                int width, int height)
+        {
+            this.type     = type;
+            this.modified = modified;
+            this.length   = length;
+            this.width    = width;
+            this.height   = height;
+        }
+
+        /**
+         * If the dimensions of the image are known.
+         */
+        boolean hasBounds()
+        {
+            return width > 0 && height > 0;
+        }
+    }
+
+    /**
+     * Constructor
+     */
+    private ContentCheck() {}
+
+    /**
+     * Returns the content type of the uri. Files referenced by file:///,
+     * file:// or res:// get opened only if they have not been checked
+     * before or changed since then.
+     *
+     * @param path    The content or uri to check.
+     * @param context The application context.
+     */
+    @NonNull
+    static Result check (@Nullable String path, @NonNull Context context)
+    {
+        ContentType type = PrintContent.getContentType(path, context);
+
+        if ((type != IMAGE && type != PDF) || path.startsWith("base64") || PrintContent.isContentUri(path))
+            return new Result(type, 0, -1, 0, 0);
+
+        long modified = 0, length = -1;
+
+        if (PrintContent.isLocalFile(path))
+        {
+            File file = new File(path.substring(7));
+
+            if (!file.isFile() || !file.canRead() || file.length() == 0)
+            {
+                cache.remove(path);
+                return new Result(UNSUPPORTED, 0, -1, 0, 0);
+            }
+
+            modified = file.lastModified();
+            length   = file.length();
+        }
+
+        Result result = cache.get(path);
+
+        if (result != null && result.modified == modified && result.length == length)
+            return result;
+
+        result = probe(path, modified, length, context);
+
+        cache.put(path, result);
+
+        return result;
+    }
+
+    /**
+     * Returns a tag that changes whenever the file behind the uri changes,
+     * to tell apart the versions of a file at the same path. Local files
+     * and content:// uris get tagged by their size and modification time,
+     * or by the hash of their bytes if the provider does not report them.
+     * Encoded content and bundled files cannot change and get no tag.
+     *
+     * @param path    The content or uri of the file.
+     * @param context The application context.
+     */
+    @NonNull
+    static String getVersion (@NonNull String path, @NonNull Context context)
+    {
+        if (PrintContent.isLocalFile(path))
+        {
+            File file = new File(path.substring(7));
+
+            return file.length() + ":" + file.lastModified();
+        }
+
+        if (!PrintContent.isContentUri(path))
+            return "";
+
+        Cursor cursor = null;
+
+        try {
+            cursor = context.getContentResolver().query(Uri.parse(path), null, null, null, null);
+
+            if (cursor != null && cursor.moveToFirst())
+            {
+                int size     = cursor.getColumnIndex(OpenableColumns.SIZE);
+                int modified = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+
+                if (size >= 0 && modified >= 0 && !cursor.isNull(size) && !cursor.isNull(modified))
+                    return cursor.getLong(size) + ":" + cursor.getLong(modified);
+            }
+        } catch (RuntimeException e) {
+            // the provider does not support queries
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+
+        return digest(path, context);
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 hash of the bytes behind the uri.
+     *
+     * @param path    The uri of the file.
+     * @param context The application context.
+     *
+     * @return An empty string if the file cannot be read.
+     */
+    @NonNull
+    private static String digest (@NonNull String path, @NonNull Context context)
+    {
+        BufferedInputStream stream = PrintContent.open(path, context);
+        byte[] buffer              = new byte[8192];
+        MessageDigest digest;
+
+        if (stream == null)
+            return "";
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+
+            for (int n; (n = stream.read(buffer)) != -1;)
+            {
+                digest.update(buffer, 0, n);
+            }
+
+            return PrintPreview.toHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return "";
+        } finally {
+            PrintIO.close(stream);
+        }
+    }
+
+    /**
+     * Opens the file and detects its type by the magic bytes.
+     *
+     * @param path     The uri of the file.
+     * @param modified The modification time of the file.
+     * @param length   The size of the file.
+     * @param context  The application context.
+     */
+    @NonNull
+    private static Result probe (@NonNull String path, long modified, long length,
+                                 @NonNull Context context)
+    {
+        BufferedInputStream stream = PrintContent.open(path, context);
+        byte[] header              = new byte[HEADER_SIZE];
+        int read                   = 0;
+
+        if (stream == null)
+            return new Result(UNSUPPORTED, modified, length, 0, 0);
+
+        try {
+            stream.mark(HEADER_SIZE);
+
+            for (int n; read < HEADER_SIZE && (n = stream.read(header, read, HEADER_SIZE - read)) != -1;)
+            {
+                read += n;
+            }
+
+            ContentType type = getType(header, read);
+
+            if (type != IMAGE)
+                return new Result(type, modified, length, 0, 0);
+
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+
+            bounds.inJustDecodeBounds = true;
+            stream.reset();
+            BitmapFactory.decodeStream(stream, null, bounds);
+
+            return new Result(IMAGE, modified, length, bounds.outWidth, bounds.outHeight);
+        } catch (IOException e) {
+            return new Result(UNSUPPORTED, modified, length, 0, 0);
+        } finally {
+            PrintIO.close(stream);
+        }
+    }
+
+    /**
+     * Detects the content type by the first bytes of the file.
+     *
+     * @param h   The first bytes of the file.
+     * @param len The number of bytes read.
+     *
+     * @return UNSUPPORTED if the format is not known.
+     */
+    @NonNull
+    static ContentType getType (@NonNull byte[] h, int len)
+    {
+        if (len >= 4 && h[0] == '%' && h[1] == 'P' && h[2] == 'D' && h[3] == 'F')
+            return PDF;
+
+        if (len >= 4 && (h[0] & 0xFF) == 0x89 && h[1] == 'P' && h[2] == 'N' && h[3] == 'G')
+            return IMAGE;
+
+        if (len >= 3 && (h[0] & 0xFF) == 0xFF && (h[1] & 0xFF) == 0xD8 && (h[2] & 0xFF) == 0xFF)
+            return IMAGE;
+
+        if (len >= 4 && h[0] == 'G' && h[1] == 'I' && h[2] == 'F' && h[3] == '8')
+            return IMAGE;
+
+        if (len >= 2 && h[0] == 'B' && h[1] == 'M')
+            return IMAGE;
+
+        if (len >= 4 && h[0] == 0 && h[1] == 0 && h[2] == 1 && h[3] == 0)
+            return IMAGE;
+
+        if (len >= 12 && h[4] == 'f' && h[5] == 't' && h[6] == 'y' && h[7] == 'p'
+                && ((h[8] == 'h' && h[9] == 'e' && h[10] == 'i')
+                    || (h[8] == 'm' && h[9] == 'i' && h[10] == 'f')
+                    || (h[8] == 'm' && h[9] == 's' && h[10] == 'f')))
+            return IMAGE;
+
+        if (len >= 8 && h[3] == 0x0C && h[4] == 'j' && h[5] == 'P' && h[6] == ' ' && h[7] == ' ')
+            return IMAGE;
+
+        return UNSUPPORTED;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import cielo.printer.client.PrinterAttributes;
+
+/**
+ * Renders the receipts as fixed width plain text into a file or into
+ * memory. Useful for tests, previews and to measure the throughput of the
+ * plugin without any printer hardware.
+ */
+class FileBackend implements PrintBackend
+{
+    // Number of characters per line of the rendered text
+    private final int columns;
+
+    // The file to append the output to or null to keep it in memory
+    private final @Nullable File file;
+
+    // The output of the last printed receipt
+    private @NonNull String output = "";
+
+    // The output of the receipt sent through append
+    private @Nullable StringBuilder stream;
+
+    // The number of elements rendered
+    private int printed;
+
+    /**
+     * Constructor
+     *
+     * @param file    The file to append the output to or null to keep the
+     *                output in memory.
+     * @param columns Number of characters per line.
+     */
+    FileBackend (@Nullable File file, int columns)
+    {
+        this.file    = file;
+        this.columns = Math.max(columns, 1);
+    }
+
+    @NonNull
+    @Override
+    public String getName()
+    {
+        return file != null ? "file" : "memory";
+    }
+
+    /**
+     * Renders the ops and writes them to the sink.
+     *
+     * @param ops The compiled elements of the receipt.
+     *
+     * @return Always null as rendering cannot fail.
+     *
+     * @throws IOException If the output file is not writable.
+     */
+    @Nullable
+    @Override
+    public String print (@NonNull List<ReceiptOp> ops) throws IOException
+    {
+        output = render(ops);
+
+        if (file != null)
+        {
+            write(file, output);
+        }
+
+        printed += ReceiptOp.countElements(ops);
+
+        return null;
+    }
+
+    /**
+     * Renders the chunk and appends it to the file right away. In memory
+     * the output gets collected until finish.
+     *
+     * @param ops The compiled elements of the chunk.
+     *
+     * @return Always null as rendering cannot fail.
+     *
+     * @throws IOException If the output file is not writable.
+     */
+    @Nullable
+    @Override
+    public String append (@NonNull List<ReceiptOp> ops) throws IOException
+    {
+        String text = render(ops);
+
+        if (file != null)
+        {
+            write(file, text);
+        }
+        else
+        {
+            if (stream == null) stream = new StringBuilder();
+            stream.append(text);
+        }
+
+        printed += ReceiptOp.countElements(ops);
+
+        return null;
+    }
+
+    /**
+     * Makes the collected chunks the output.
+     *
+     * @return Always null.
+     */
+    @Nullable
+    @Override
+    public String finish()
+    {
+        output = stream != null ? stream.toString() : "";
+        stream = null;
+
+        return null;
+    }
+
+    /**
+     * Drops the chunks collected in memory. Chunks appended to the file
+     * stay there.
+     */
+    @Override
+    public void abort()
+    {
+        stream = null;
+    }
+
+    @Override
+    public int getPrinted()
+    {
+        return printed;
+    }
+
+    /**
+     * Renders the ops as fixed width text.
+     *
+     * @param ops The compiled elements of the receipt.
+     */
+    @NonNull
+    private String render (@NonNull List<ReceiptOp> ops)
+    {
+        StringBuilder text = new StringBuilder();
+
+        for (ReceiptOp op : ops)
+        {
+            if (op.kind == ReceiptOp.Kind.IMAGE)
+            {
+                appendLine(text, "[imagem]", op.align);
+                continue;
+            }
+
+            for (String line : op.value.split("\n", -1))
+            {
+                appendLine(text, line, op.align);
+            }
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * The rendered output of the last printed receipt.
+     */
+    @NonNull
+    String getOutput()
+    {
+        return output;
+    }
+
+    /**
+     * Appends the line padded to the alignment. Lines longer than the
+     * number of columns get wrapped.
+     *
+     * @param text  The buffer to append to.
+     * @param line  The line to append.
+     * @param align One of the PrinterAttributes.VAL_ALIGN_* constants.
+     */
+    private void appendLine (@NonNull StringBuilder text, @NonNull String line,
+                             int align)
+    {
+        do {
+            int len = Math.min(line.length(), columns);
+            int pad = columns - len;
+
+            if (align == PrinterAttributes.VAL_ALIGN_CENTER)
+            {
+                pad = pad / 2;
+            }
+            else if (align != PrinterAttributes.VAL_ALIGN_RIGHT)
+            {
+                pad = 0;
+            }
+
+            for (int i = 0; i < pad; i++)
+            {
+                text.append(' ');
+            }
+
+            text.append(line, 0, len).append('\n');
+            line = line.substring(len);
+        } while (!line.isEmpty());
+    }
+
+    /**
+     * Appends the content to the file.
+     *
+     * @param file    The file to write into.
+     * @param content The content to append.
+     *
+     * @throws IOException If the file is not writable.
+     */
+    private static void write (@NonNull File file, @NonNull String content)
+            throws IOException
+    {
+        File dir = file.getParentFile();
+
+        if (dir != null && !dir.exists() && !dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+
+        try {
+            writer.write(content);
+        } finally {
+            PrintIO.close(writer);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Prints the receipts through the Android print framework.
+ *
+ * The job only completes once the user closed the print dialog, so the
+ * plugin uses the variants that take a callback, which gets invoked by
+ * the print framework, instead of blocking one of its threads meanwhile.
+ */
+class FrameworkBackend implements PrintBackend
+{
+    // Receives the result of a print job
+    interface OnPrintDoneCallback
+    {
+        void onDone (@Nullable String error);
+    }
+
+    // Knows how to talk to the print framework
+    private final @NonNull PrintManager manager;
+
+    // Additional settings how to render the content
+    private final @NonNull JSONObject settings;
+
+    // The elements of the receipt sent through append
+    private final @NonNull List<ReceiptOp> stream = new ArrayList<>();
+
+    // The number of elements of the completed jobs
+    private volatile int printed;
+
+    /**
+     * Constructor
+     *
+     * @param context  The activity context.
+     * @param settings Additional settings how to render the content.
+     */
+    FrameworkBackend (@NonNull Context context, @NonNull JSONObject settings)
+    {
+        this.manager  = new PrintManager(context);
+        this.settings = settings;
+    }
+
+    @NonNull
+    @Override
+    public String getName()
+    {
+        return "android";
+    }
+
+    /**
+     * Draws the receipt onto PDF pages and waits until the print job
+     * is done.
+     *
+     * @param ops The compiled elements of the receipt.
+     *
+     * @return null on success or the error if the job did not complete.
+     */
+    @Nullable
+    @Override
+    public String print (@NonNull List<ReceiptOp> ops) throws Exception
+    {
+        CountDownLatch done = new CountDownLatch(1);
+        String[] result     = { null };
+
+        print(ops, error -> {
+            result[0] = error;
+            done.countDown();
+        });
+
+        done.await();
+
+        return result[0];
+    }
+
+    /**
+     * Draws the receipt onto PDF pages and hands them over to the print
+     * framework without waiting for the job.
+     *
+     * @param ops      The compiled elements of the receipt.
+     * @param callback The function to invoke once the job is done.
+     */
+    void print (@NonNull List<ReceiptOp> ops, @NonNull OnPrintDoneCallback callback)
+    {
+        int count = ReceiptOp.countElements(ops);
+
+        manager.printReceipt(ops, settings, success -> {
+            if (success) printed += count;
+            callback.onDone(success ? null : "Impressão cancelada");
+        });
+    }
+
+    /**
+     * Collects the chunk. The print framework needs the whole document
+     * to lay out the pages, so nothing gets printed before finish.
+     *
+     * @param ops The compiled elements of the chunk.
+     *
+     * @return Always null.
+     */
+    @Nullable
+    @Override
+    public String append (@NonNull List<ReceiptOp> ops)
+    {
+        stream.addAll(ops);
+
+        return null;
+    }
+
+    /**
+     * Prints the collected chunks as one document.
+     *
+     * @return null on success or the error if the job did not complete.
+     */
+    @Nullable
+    @Override
+    public String finish() throws Exception
+    {
+        if (stream.isEmpty())
+            return null;
+
+        return print(drain());
+    }
+
+    /**
+     * Prints the collected chunks as one document without waiting for
+     * the job.
+     *
+     * @param callback The function to invoke once the job is done.
+     */
+    void finish (@NonNull OnPrintDoneCallback callback)
+    {
+        if (stream.isEmpty()) {
+            callback.onDone(null);
+        } else {
+            print(drain(), callback);
+        }
+    }
+
+    /**
+     * Drops the collected chunks without printing them.
+     */
+    @Override
+    public void abort()
+    {
+        stream.clear();
+    }
+
+    @Override
+    public int getPrinted()
+    {
+        return printed;
+    }
+
+    /**
+     * Returns the collected chunks and starts over.
+     */
+    @NonNull
+    private List<ReceiptOp> drain()
+    {
+        List<ReceiptOp> ops = new ArrayList<>(stream);
+
+        stream.clear();
+
+        return ops;
+    }
+}
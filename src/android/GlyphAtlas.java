@@ -0,0 +1,210 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+import android.util.LruCache;
+import android.util.SparseArray;
+
+/**
+ * Caches the characters of the receipt fonts pre-rasterized to 1-bit
+ * masks, so that raster receipts can set the bits of their text straight
+ * into the packed rows instead of drawing and dithering it each time.
+ *
+ * A glyph gets drawn once per typeface and text size when it is used for
+ * the first time and is kept for the lifetime of the process. Its mask is
+ * thresholded instead of dithered, which keeps the edges of small text
+ * sharp on the printer.
+ */
+final class GlyphAtlas
+{
+    // The alpha from that a pixel of a glyph turns black
+    private static final int THRESHOLD = 128;
+
+    // The fonts by typeface and text size
+    private static final LruCache<String, GlyphAtlas> fonts = new LruCache<>(8);
+
+    // The paint to draw the glyphs with
+    private final @NonNull Paint paint;
+
+    // The rasterized glyphs by character
+    private final @NonNull SparseArray<Glyph> glyphs = new SparseArray<>();
+
+    /**
+     * The mask of one character.
+     */
+    static final class Glyph
+    {
+        // The offset of the mask from the pen position
+        final int left;
+
+        // The offset of the mask from the baseline, negative above it
+        final int top;
+
+        // The width of the mask in pixels
+        final int width;
+
+        // The height of the mask in pixels
+        final int height;
+
+        // The number of ints per row
+        final int words;
+
+        // The rows of the mask, most significant bit first
+        final @NonNull int[] rows;
+
+        /**
+         * Constructor
+         *
+         * @param left   The offset of the mask from the pen position.
+         * @param top    The offset of the mask from the baseline.
+         * @param width  The width of the mask in pixels.
+         * @param height The height of the mask in pixels.
+         */
+        private Glyph (int left, int top, int width, int height)
+        {
+            this.left   = left;
+            this.top    = top;
+            this.width  = width;
+            this.height = height;
+            this.words  = (width + 31) >> 5;
+            this.rows   = new int[words * height];
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param paint The paint the text gets laid out with.
+     */
+    private GlyphAtlas (@NonNull Paint paint)
+    {
+        this.paint = new Paint(paint);
+    }
+
+    /**
+     * Returns the atlas for the typeface and text size of the paint.
+     *
+     * @param paint The paint the text gets laid out with.
+     */
+    @NonNull
+    static GlyphAtlas get (@NonNull Paint paint)
+    {
+        String key = System.identityHashCode(paint.getTypeface()) + ":" + paint.getTextSize();
+
+        synchronized (fonts)
+        {
+            GlyphAtlas atlas = fonts.get(key);
+
+            if (atlas == null)
+            {
+                atlas = new GlyphAtlas(paint);
+                fonts.put(key, atlas);
+            }
+
+            return atlas;
+        }
+    }
+
+    /**
+     * If the character can be drawn from its mask alone. Surrogates, marks
+     * and tabs depend on their neighbours and have to be drawn as text.
+     *
+     * @param c The character.
+     */
+    static boolean canDraw (char c)
+    {
+        if (c == '\t' || Character.isSurrogate(c))
+            return false;
+
+        int type = Character.getType(c);
+
+        return type != Character.NON_SPACING_MARK
+            && type != Character.ENCLOSING_MARK
+            && type != Character.COMBINING_SPACING_MARK
+            && type != Character.FORMAT;
+    }
+
+    /**
+     * Returns the mask of the character and rasterizes it on first use.
+     *
+     * @param c The character.
+     */
+    @NonNull
+    synchronized Glyph getGlyph (char c)
+    {
+        Glyph glyph = glyphs.get(c);
+
+        if (glyph == null)
+        {
+            glyph = rasterize(c);
+            glyphs.put(c, glyph);
+        }
+
+        return glyph;
+    }
+
+    /**
+     * Draws the character and packs the pixels above the threshold.
+     *
+     * @param c The character.
+     */
+    @NonNull
+    private Glyph rasterize (char c)
+    {
+        String text = String.valueOf(c);
+        Rect bounds = new Rect();
+
+        paint.getTextBounds(text, 0, 1, bounds);
+
+        if (bounds.isEmpty())
+            return new Glyph(0, 0, 0, 0);
+
+        Glyph glyph   = new Glyph(bounds.left, bounds.top, bounds.width(), bounds.height());
+        Bitmap bitmap = Bitmap.createBitmap(glyph.width, glyph.height, Bitmap.Config.ALPHA_8);
+        int[] pixels  = new int[glyph.width * glyph.height];
+
+        try {
+            new Canvas(bitmap).drawText(text, -bounds.left, -bounds.top, paint);
+            bitmap.getPixels(pixels, 0, glyph.width, 0, 0, glyph.width, glyph.height);
+        } finally {
+            bitmap.recycle();
+        }
+
+        for (int y = 0; y < glyph.height; y++)
+        {
+            for (int x = 0; x < glyph.width; x++)
+            {
+                if ((pixels[y * glyph.width + x] >>> 24) >= THRESHOLD)
+                {
+                    glyph.rows[y * glyph.words + (x >> 5)] |= 0x80000000 >>> (x & 31);
+                }
+            }
+        }
+
+        return glyph;
+    }
+}
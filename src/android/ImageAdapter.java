@@ -0,0 +1,411 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.pdf.PdfDocument;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.print.PageRange;
+import android.print.PrintAttributes;
+import android.print.PrintDocumentAdapter;
+import android.print.PrintDocumentInfo;
+import android.print.pdf.PrintedPdfDocument;
+import android.support.annotation.NonNull;
+import android.support.v4.print.PrintHelper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.print.PrintDocumentInfo.CONTENT_TYPE_PHOTO;
+
+/**
+ * Document adapter to print very large images. The image never gets
+ * decoded as a whole, instead regions of it are decoded strip by strip
+ * and subsampled to the print resolution.
+ *
+ * The PdfDocument keeps the drawings of all pages until it gets written,
+ * so recycling the strips does not free their pixels. Posters therefore
+ * get subsampled further once the written pages would exceed
+ * MAX_DOCUMENT_PIXELS, which bounds the memory of the whole document.
+ */
+class ImageAdapter extends PrintDocumentAdapter
+{
+    // Resolution in dots per inch the image gets printed with
+    private static final int DPI = 200;
+
+    // Max rows of pixels decoded at once
+    private static final int STRIP_HEIGHT = 512;
+
+    // Max pixels drawn into all pages of one document
+    private static final long MAX_DOCUMENT_PIXELS = 12_000_000;
+
+    // The application context
+    private final @NonNull Context context;
+
+    // The name of the print job
+    private final @NonNull String jobName;
+
+    // The image file to print
+    private final @NonNull File file;
+
+    // If the file is a spooled copy to delete once the job is done
+    private final boolean temporary;
+
+    // Spread the image over several pages instead of fitting it into one
+    private final boolean poster;
+
+    // The dimensions of the source image
+    private final int width, height;
+
+    // The callback to inform once the job is done
+    private final @NonNull PrintHelper.OnPrintFinishCallback callback;
+
+    // The attributes of the last layout
+    private PrintAttributes attributes;
+
+    // The size of a poster tile in source pixels
+    private int tileWidth, tileHeight;
+
+    // The number of poster columns
+    private int columns;
+
+    // The page count of the last layout
+    private int pageCount;
+
+    /**
+     * Constructor
+     *
+     * @param context   The application context.
+     * @param jobName   The name of the print job.
+     * @param file      The image file to print.
+     * @param temporary If the file has to be deleted once the job is done.
+     * @param poster    Spread the image over several pages.
+     * @param width     The width of the source image.
+     * @param height    The height of the source image.
+     * @param callback  The callback to inform once the job is done.
+     */
+    ImageAdapter (@NonNull Context context, @NonNull String jobName,
+                  @NonNull File file, boolean temporary, boolean poster,
+                  int width, int height,
+                  @NonNull PrintHelper.OnPrintFinishCallback callback)
+    {
+        this.context   = context;
+        this.jobName   = jobName;
+        this.file      = file;
+        this.temporary = temporary;
+        this.poster    = poster;
+        this.width     = width;
+        this.height    = height;
+        this.callback  = callback;
+    }
+
+    @Override
+    public void onLayout (PrintAttributes oldAttributes,
+                          PrintAttributes newAttributes,
+                          CancellationSignal cancellationSignal,
+                          LayoutResultCallback callback,
+                          Bundle bundle)
+    {
+        if (cancellationSignal.isCanceled())
+        {
+            callback.onLayoutCancelled();
+            return;
+        }
+
+        Rect content    = ReceiptAdapter.getContentRect(newAttributes);
+        boolean changed = !newAttributes.equals(attributes);
+
+        attributes = newAttributes;
+
+        if (poster)
+        {
+            tileWidth  = Math.max(1, content.width() * DPI / 72);
+            tileHeight = Math.max(1, content.height() * DPI / 72);
+            columns    = (width + tileWidth - 1) / tileWidth;
+            pageCount  = columns * ((height + tileHeight - 1) / tileHeight);
+        }
+        else
+        {
+            pageCount = 1;
+        }
+
+        PrintDocumentInfo pdi = new PrintDocumentInfo.Builder(jobName)
+                .setContentType(CONTENT_TYPE_PHOTO)
+                .setPageCount(pageCount)
+                .build();
+
+        callback.onLayoutFinished(pdi, changed);
+    }
+
+    @Override
+    public void onWrite (PageRange[] range,
+                         ParcelFileDescriptor dest,
+                         CancellationSignal cancellationSignal,
+                         WriteResultCallback callback)
+    {
+        PrintedPdfDocument pdf      = new PrintedPdfDocument(context, attributes);
+        List<PageRange> written     = new ArrayList<>();
+        BitmapRegionDecoder decoder = null;
+        int sample                  = poster ? getPosterSampleSize(range) : 1;
+
+        try {
+            decoder = BitmapRegionDecoder.newInstance(file.getAbsolutePath(), false);
+
+            for (int i = 0; i < pageCount; i++)
+            {
+                if (cancellationSignal.isCanceled())
+                {
+                    callback.onWriteCancelled();
+                    return;
+                }
+
+                if (!ReceiptAdapter.contains(range, i))
+                    continue;
+
+                PdfDocument.Page page = pdf.startPage(i);
+                Canvas canvas         = page.getCanvas();
+                Rect content          = page.getInfo().getContentRect();
+                List<Bitmap> strips;
+
+                canvas.translate(content.left, content.top);
+
+                if (poster)
+                {
+                    strips = drawTile(canvas, decoder, i, sample);
+                }
+                else
+                {
+                    strips = drawFit(canvas, decoder, width, height, content.width(), content.height());
+                }
+
+                pdf.finishPage(page);
+
+                for (Bitmap strip : strips)
+                {
+                    strip.recycle();
+                }
+
+                written.add(new PageRange(i, i));
+            }
+
+            FileOutputStream output = new FileOutputStream(dest.getFileDescriptor());
+
+            pdf.writeTo(output);
+            PrintIO.close(output);
+        } catch (IOException e) {
+            callback.onWriteFailed(e.getMessage());
+            return;
+        } finally {
+            pdf.close();
+
+            if (decoder != null)
+            {
+                decoder.recycle();
+            }
+        }
+
+        callback.onWriteFinished(written.toArray(new PageRange[0]));
+    }
+
+    /**
+     * Deletes the spooled file and invokes the callback.
+     */
+    @Override
+    public void onFinish ()
+    {
+        super.onFinish();
+
+        if (temporary)
+        {
+            file.delete();
+        }
+
+        callback.onFinish();
+    }
+
+    /**
+     * Draws the whole image centered and scaled down into the content area.
+     *
+     * @param canvas  The canvas of the page.
+     * @param decoder The decoder of the source image.
+     * @param width   The width of the source image.
+     * @param height  The height of the source image.
+     * @param cw      The width of the content area.
+     * @param ch      The height of the content area.
+     *
+     * @return The decoded strips to recycle once the page is finished.
+     *
+     * @throws IOException If a strip cannot be decoded.
+     */
+    @NonNull
+    static List<Bitmap> drawFit (@NonNull Canvas canvas,
+                                 @NonNull BitmapRegionDecoder decoder,
+                                 int width, int height, int cw, int ch)
+            throws IOException
+    {
+        float scale = Math.min((float) cw / width, (float) ch / height);
+        float w     = width * scale;
+        float h     = height * scale;
+        float left  = (cw - w) / 2;
+        float top   = (ch - h) / 2;
+        int sample  = getSampleSize(width, (int) (w * DPI / 72));
+
+        return drawRegion(canvas, decoder, new Rect(0, 0, width, height),
+                new RectF(left, top, left + w, top + h), sample);
+    }
+
+    /**
+     * Returns the subsample factor for the poster tiles so that the pages
+     * within the range stay below MAX_DOCUMENT_PIXELS.
+     *
+     * @param range The pages to write.
+     */
+    private int getPosterSampleSize (@NonNull PageRange[] range)
+    {
+        long pixels = 0;
+        int sample  = 1;
+
+        for (int i = 0; i < pageCount; i++)
+        {
+            if (ReceiptAdapter.contains(range, i))
+            {
+                pixels += (long) tileWidth * tileHeight;
+            }
+        }
+
+        while (pixels / ((long) sample * sample) > MAX_DOCUMENT_PIXELS)
+        {
+            sample *= 2;
+        }
+
+        return sample;
+    }
+
+    /**
+     * Draws the poster tile of the image in its print resolution.
+     *
+     * @param canvas  The canvas of the page.
+     * @param decoder The decoder of the source image.
+     * @param index   The index of the page.
+     * @param sample  The subsample factor to decode with.
+     *
+     * @return The decoded strips to recycle once the page is finished.
+     *
+     * @throws IOException If a strip cannot be decoded.
+     */
+    @NonNull
+    private List<Bitmap> drawTile (@NonNull Canvas canvas,
+                                   @NonNull BitmapRegionDecoder decoder,
+                                   int index, int sample) throws IOException
+    {
+        int left    = (index % columns) * tileWidth;
+        int top     = (index / columns) * tileHeight;
+        float scale = 72f / DPI;
+        Rect src    = new Rect(left, top, Math.min(width, left + tileWidth),
+                               Math.min(height, top + tileHeight));
+
+        return drawRegion(canvas, decoder, src,
+                new RectF(0, 0, src.width() * scale, src.height() * scale), sample);
+    }
+
+    /**
+     * Decodes the region of the source strip by strip and draws it into
+     * the destination rect.
+     *
+     * @param canvas  The canvas of the page.
+     * @param decoder The decoder of the source image.
+     * @param src     The region of the source image.
+     * @param dest    The area on the page.
+     * @param sample  The subsample factor to decode with.
+     *
+     * @return The decoded strips.
+     *
+     * @throws IOException If a strip cannot be decoded.
+     */
+    @NonNull
+    private static List<Bitmap> drawRegion (@NonNull Canvas canvas,
+                                            @NonNull BitmapRegionDecoder decoder,
+                                            @NonNull Rect src, @NonNull RectF dest,
+                                            int sample) throws IOException
+    {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        List<Bitmap> strips        = new ArrayList<>();
+        float scaleY               = dest.height() / src.height();
+        int step                   = STRIP_HEIGHT * sample;
+
+        opts.inSampleSize = sample;
+
+        for (int y = src.top; y < src.bottom; y += step)
+        {
+            Rect region  = new Rect(src.left, y, src.right, Math.min(src.bottom, y + step));
+            Bitmap strip = decoder.decodeRegion(region, opts);
+
+            if (strip == null)
+            {
+                for (Bitmap decoded : strips)
+                {
+                    decoded.recycle();
+                }
+
+                throw new IOException("Cannot decode region " + region.toShortString());
+            }
+
+            canvas.drawBitmap(strip, null, new RectF(dest.left,
+                    dest.top + (region.top - src.top) * scaleY, dest.right,
+                    dest.top + (region.bottom - src.top) * scaleY), null);
+
+            strips.add(strip);
+        }
+
+        return strips;
+    }
+
+    /**
+     * Returns the largest power of two to subsample the source with so
+     * that the result is still at least as large as the target.
+     *
+     * @param source The size of the source.
+     * @param target The required size.
+     */
+    static int getSampleSize (int source, int target)
+    {
+        int sample = 1;
+
+        while (target > 0 && source / (sample * 2) >= target)
+        {
+            sample *= 2;
+        }
+
+        return sample;
+    }
+}
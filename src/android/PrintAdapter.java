@@ -29,12 +29,11 @@ import android.print.PrintAttributes;
 import android.print.PrintDocumentAdapter;
 import android.print.PrintDocumentInfo;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.print.PrintHelper;
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 
 import static android.print.PrintDocumentInfo.CONTENT_TYPE_DOCUMENT;
 
@@ -49,8 +48,14 @@ class PrintAdapter extends PrintDocumentAdapter
     // Max page count
     private final int pageCount;
 
-    // The input stream to render
-    private final @NonNull InputStream input;
+    // The PDF file to print, null if printed from the descriptor
+    private final @Nullable File file;
+
+    // The descriptor of the PDF content to print, null if printed from the file
+    private final @Nullable ParcelFileDescriptor descriptor;
+
+    // If the file is a spooled copy to delete once the job is done
+    private final boolean temporary;
 
     // The callback to inform once the job is done
     private final @NonNull PrintHelper.OnPrintFinishCallback callback;
@@ -60,17 +65,41 @@ class PrintAdapter extends PrintDocumentAdapter
      *
      * @param jobName   The name of the print job.
      * @param pageCount The max page count.
-     * @param input     The input stream to render.
+     * @param file      The PDF file to print.
+     * @param temporary If the file has to be deleted once the job is done.
      * @param callback  The callback to inform once the job is done.
      */
     PrintAdapter (@NonNull String jobName, int pageCount,
-                  @NonNull InputStream input,
+                  @NonNull File file, boolean temporary,
                   @NonNull PrintHelper.OnPrintFinishCallback callback)
     {
-        this.jobName   = jobName;
-        this.pageCount = pageCount;
-        this.input     = input;
-        this.callback  = callback;
+        this.jobName    = jobName;
+        this.pageCount  = pageCount;
+        this.file       = file;
+        this.descriptor = null;
+        this.temporary  = temporary;
+        this.callback   = callback;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param jobName    The name of the print job.
+     * @param pageCount  The max page count.
+     * @param descriptor The seekable descriptor of the PDF content to
+     *                   print. Gets closed once the job is done.
+     * @param callback   The callback to inform once the job is done.
+     */
+    PrintAdapter (@NonNull String jobName, int pageCount,
+                  @NonNull ParcelFileDescriptor descriptor,
+                  @NonNull PrintHelper.OnPrintFinishCallback callback)
+    {
+        this.jobName    = jobName;
+        this.pageCount  = pageCount;
+        this.file       = null;
+        this.descriptor = descriptor;
+        this.temporary  = false;
+        this.callback   = callback;
     }
 
     @Override
@@ -104,10 +133,12 @@ class PrintAdapter extends PrintDocumentAdapter
         if (cancellationSignal.isCanceled())
             return;
 
-        OutputStream output = new FileOutputStream(dest.getFileDescriptor());
-
         try {
-            PrintIO.copy(input, output);
+            if (descriptor != null) {
+                PrintIO.transfer(descriptor, dest.getFileDescriptor());
+            } else {
+                PrintIO.transfer(file, dest.getFileDescriptor());
+            }
         } catch (IOException e) {
             callback.onWriteFailed(e.getMessage());
             return;
@@ -117,14 +148,23 @@ class PrintAdapter extends PrintDocumentAdapter
     }
 
     /**
-     * Closes the input stream and invokes the callback.
+     * Deletes the spooled file or closes the descriptor and invokes the
+     * callback.
      */
     @Override
     public void onFinish ()
     {
         super.onFinish();
 
-        PrintIO.close(input);
+        if (temporary && file != null)
+        {
+            file.delete();
+        }
+
+        if (descriptor != null)
+        {
+            PrintIO.close(descriptor);
+        }
 
         callback.onFinish();
     }
@@ -0,0 +1,84 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Destination for compiled receipts. One instance represents one printer
+ * session and can print several documents in a row.
+ */
+interface PrintBackend
+{
+    /**
+     * The name used to select the backend through the backend option.
+     */
+    @NonNull String getName();
+
+    /**
+     * Prints the compiled receipt and blocks until the backend is done.
+     *
+     * @param ops The compiled elements of the receipt.
+     *
+     * @return null on success or the error reported by the backend.
+     *
+     * @throws Exception If the receipt could not be sent at all.
+     */
+    @Nullable String print (@NonNull List<ReceiptOp> ops) throws Exception;
+
+    /**
+     * Sends the next chunk of a receipt that arrives in several parts.
+     * May return before the chunk has been printed.
+     *
+     * @param ops The compiled elements of the chunk.
+     *
+     * @return null on success or the first error reported by the backend.
+     *
+     * @throws Exception If the chunk could not be sent at all.
+     */
+    @Nullable String append (@NonNull List<ReceiptOp> ops) throws Exception;
+
+    /**
+     * Completes the receipt sent through append and blocks until the
+     * backend is done.
+     *
+     * @return null on success or the error reported by the backend.
+     *
+     * @throws Exception If the receipt could not be completed.
+     */
+    @Nullable String finish() throws Exception;
+
+    /**
+     * Drops the receipt sent through append without completing it, like
+     * once a chunk failed, and releases what the backend holds for it.
+     */
+    void abort();
+
+    /**
+     * Returns the number of receipt elements the backend printed since it
+     * got created, which is less than sent if a job failed midway.
+     */
+    int getPrinted();
+}
@@ -24,10 +24,12 @@ package de.appplant.cordova.plugin.printer;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLConnection;
@@ -86,22 +88,43 @@ class PrintContent
         {
             String mime;
 
-            if (path.startsWith("base64:"))
+            if (path.startsWith("base64:") || path.startsWith("base64gz:"))
             {
                 try
                 {
-                    mime = URLConnection.guessContentTypeFromStream(io.openBase64(path));
+                    return sniff(path.startsWith("base64:") ? io.openBase64(path) : io.openBase64Gz(path));
                 }
                 catch (IOException e)
                 {
                     return ContentType.UNSUPPORTED;
                 }
             }
+            else if (isContentUri(path))
+            {
+                mime = io.getContentMimeType(path);
+
+                if (mime == null || mime.equals("application/octet-stream"))
+                {
+                    InputStream stream = io.openContent(path);
+
+                    try
+                    {
+                        return stream != null ? sniff(stream) : ContentType.UNSUPPORTED;
+                    }
+                    catch (IOException e)
+                    {
+                        return ContentType.UNSUPPORTED;
+                    }
+                }
+            }
             else
             {
                 mime = URLConnection.guessContentTypeFromName(path);
             }
 
+            if (mime == null)
+                return ContentType.UNSUPPORTED;
+
             switch (mime)
             {
                 case "image/bmp":
@@ -125,7 +148,34 @@ class PrintContent
     }
 
     /**
-     * Opens a file://, res:// or base64:// Uri as a stream.
+     * Detects the type of encoded content by its magic bytes. Only the
+     * first bytes get decoded.
+     *
+     * @param stream The decoded content. Gets closed afterwards.
+     *
+     * @throws IOException If the content could not be decoded.
+     */
+    @NonNull
+    private static ContentType sniff (@NonNull InputStream stream) throws IOException
+    {
+        byte[] header = new byte[12];
+        int read      = 0;
+
+        try {
+            for (int n; read < header.length && (n = stream.read(header, read, header.length - read)) != -1;)
+            {
+                read += n;
+            }
+        } finally {
+            PrintIO.close(stream);
+        }
+
+        return ContentCheck.getType(header, read);
+    }
+
+    /**
+     * Opens a file://, res://, base64://, base64gz:// or content:// Uri
+     * as a stream.
      *
      * @param path The file path to decode.
      * @param context The application context.
@@ -140,7 +190,8 @@ class PrintContent
     }
 
     /**
-     * Opens a file://, res:// or base64:// Uri as a stream.
+     * Opens a file://, res://, base64://, base64gz:// or content:// Uri
+     * as a stream.
      *
      * @param path The file path to decode.
      *
@@ -167,12 +218,114 @@ class PrintContent
         {
             stream = io.openBase64(path);
         }
+        else if (path.startsWith("base64gz:"))
+        {
+            try {
+                stream = io.openBase64Gz(path);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        else if (isContentUri(path))
+        {
+            stream = io.openContent(path);
+        }
 
         return stream != null ? new BufferedInputStream(stream) : null;
     }
 
     /**
-     * Decodes a file://, res:// or base64:// Uri to bitmap.
+     * Returns a file with the content of a file://, res://, base64://,
+     * base64gz:// or content:// Uri. Local files are used in place,
+     * everything else gets spooled once into a private temp file.
+     *
+     * @param path    The file path to resolve.
+     * @param context The application context.
+     *
+     * @return The file or null if the content could not be read.
+     */
+    @Nullable
+    static File spool (@NonNull String path, @NonNull Context context)
+    {
+        File file = PrintPreview.takeSpooled(path);
+
+        return file != null ? file : new PrintContent(context).spool(path);
+    }
+
+    /**
+     * Returns a file with the content of a file://, res://, base64://,
+     * base64gz:// or content:// Uri.
+     *
+     * @param path The file path to resolve.
+     *
+     * @return The file or null if the content could not be read.
+     */
+    @Nullable
+    private File spool (@NonNull String path)
+    {
+        if (isLocalFile(path))
+        {
+            File file = new File(path.substring(7));
+
+            return file.canRead() ? file : null;
+        }
+
+        InputStream stream = open(path);
+
+        return stream != null ? io.spool(stream) : null;
+    }
+
+    /**
+     * Opens the descriptor of a content:// Uri if it can be read from any
+     * position, so that it can be printed without a copy. Pipes and other
+     * streamed content have to be spooled instead.
+     *
+     * @param path    The uri to open.
+     * @param context The application context.
+     *
+     * @return null if the uri is not a seekable content:// uri.
+     */
+    @Nullable
+    static ParcelFileDescriptor openSeekable (@NonNull String path,
+                                              @NonNull Context context)
+    {
+        if (!isContentUri(path))
+            return null;
+
+        ParcelFileDescriptor fd = new PrintIO(context).openDescriptor(path);
+
+        if (fd != null && fd.getStatSize() < 0)
+        {
+            PrintIO.close(fd);
+            return null;
+        }
+
+        return fd;
+    }
+
+    /**
+     * If the Uri references the content of another app.
+     *
+     * @param path The file path to check.
+     */
+    static boolean isContentUri (@NonNull String path)
+    {
+        return path.startsWith("content://");
+    }
+
+    /**
+     * If the Uri references a file on the local file system.
+     *
+     * @param path The file path to check.
+     */
+    static boolean isLocalFile (@NonNull String path)
+    {
+        return path.startsWith("file:///");
+    }
+
+    /**
+     * Decodes a file://, res://, base64://, base64gz:// or content:// Uri
+     * to bitmap.
      *
      * @param path    The file path to decode.
      * @param context The application context.
@@ -186,7 +339,8 @@ class PrintContent
     }
 
     /**
-     * Decodes a file://, res:// or base64:// Uri to bitmap.
+     * Decodes a file://, res://, base64://, base64gz:// or content:// Uri
+     * to bitmap.
      *
      * @param path The file path to decode.
      *
@@ -213,6 +367,14 @@ class PrintContent
         {
             bitmap = io.decodeBase64(path);
         }
+        else if (path.startsWith("base64gz:"))
+        {
+            bitmap = io.decodeBase64Gz(path);
+        }
+        else if (isContentUri(path))
+        {
+            bitmap = io.decodeContent(path);
+        }
         else {
             bitmap = BitmapFactory.decodeFile(path);
         }
@@ -0,0 +1,268 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor for the work of the plugin, used instead of the thread pool
+ * shared by all Cordova plugins. The queue is bounded so that a stuck
+ * printer cannot pile up an unlimited amount of jobs, and the executor
+ * keeps track of how long the tasks had to wait and to run.
+ */
+final class PrintExecutor implements Executor
+{
+    // Number of threads, jobs for the Cielo printer run on the PrintLane
+    private static final int POOL_SIZE = 2;
+
+    // Max number of tasks waiting for a thread
+    private static final int QUEUE_SIZE = 32;
+
+    // The executor shared by all plugin instances
+    private static volatile PrintExecutor instance;
+
+    // The underlying pool
+    private final @NonNull ThreadPoolExecutor pool;
+
+    // Number of accepted tasks
+    private final AtomicLong submitted = new AtomicLong();
+
+    // Number of finished tasks
+    private final AtomicLong completed = new AtomicLong();
+
+    // Number of rejected tasks
+    private final AtomicLong rejected = new AtomicLong();
+
+    // Number of tasks that ended with an exception
+    private final AtomicLong failed = new AtomicLong();
+
+    // Number of tasks removed from the queue before they ran
+    private final AtomicLong removed = new AtomicLong();
+
+    // Sum of the time in ms the tasks have been waiting in the queue
+    private final AtomicLong waitTime = new AtomicLong();
+
+    // Sum of the time in ms the tasks have been running
+    private final AtomicLong runTime = new AtomicLong();
+
+    // Highest number of tasks waiting at once
+    private final AtomicInteger maxQueued = new AtomicInteger();
+
+    /**
+     * Returns the shared executor and creates it on first use.
+     */
+    @NonNull
+    static PrintExecutor getInstance()
+    {
+        PrintExecutor executor = instance;
+
+        if (executor == null)
+        {
+            synchronized (PrintExecutor.class)
+            {
+                if (instance == null)
+                {
+                    instance = new PrintExecutor();
+                }
+
+                executor = instance;
+            }
+        }
+
+        return executor;
+    }
+
+    /**
+     * Constructor
+     */
+    private PrintExecutor()
+    {
+        AtomicInteger counter = new AtomicInteger();
+
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "printer-job-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(QUEUE_SIZE),
+                factory, new ThreadPoolExecutor.AbortPolicy());
+
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the task.
+     *
+     * @param task The task to run.
+     *
+     * @throws RejectedExecutionException If the queue is full.
+     */
+    @Override
+    public void execute (@NonNull Runnable task)
+    {
+        long queued = SystemClock.elapsedRealtime();
+
+        try {
+            pool.execute(new Task(task, queued));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+
+        submitted.incrementAndGet();
+        updateMax(maxQueued, pool.getQueue().size());
+    }
+
+    /**
+     * Removes the task from the queue if it did not start yet, which frees
+     * its slot for other tasks.
+     *
+     * @param task The task passed to execute.
+     *
+     * @return false if the task is running or done already.
+     */
+    boolean remove (@NonNull Runnable task)
+    {
+        for (Runnable queued : pool.getQueue())
+        {
+            if (queued instanceof Task && ((Task) queued).task == task && pool.remove(queued))
+            {
+                removed.incrementAndGet();
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Runs the task and records its timing.
+     *
+     * @param task   The task to run.
+     * @param queued The time the task got queued at.
+     */
+    private void run (@NonNull Runnable task, long queued)
+    {
+        long start = SystemClock.elapsedRealtime();
+
+        waitTime.addAndGet(start - queued);
+
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            throw e;
+        } finally {
+            runTime.addAndGet(SystemClock.elapsedRealtime() - start);
+            completed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the statistics of the executor.
+     */
+    @NonNull
+    JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+        long done        = completed.get();
+
+        try {
+            stats.put("threads", pool.getPoolSize());
+            stats.put("active", pool.getActiveCount());
+            stats.put("queued", pool.getQueue().size());
+            stats.put("maxQueued", maxQueued.get());
+            stats.put("submitted", submitted.get());
+            stats.put("completed", done);
+            stats.put("failed", failed.get());
+            stats.put("rejected", rejected.get());
+            stats.put("removed", removed.get());
+            stats.put("avgWait", done > 0 ? waitTime.get() / done : 0);
+            stats.put("avgRun", done > 0 ? runTime.get() / done : 0);
+        } catch (JSONException e) {
+            // ignore
+        }
+
+        return stats;
+    }
+
+    /**
+     * A queued task with the time it got queued at.
+     */
+    private final class Task implements Runnable
+    {
+        // The task passed to execute
+        final @NonNull Runnable task;
+
+        // The time the task got queued at
+        final long queued;
+
+        /**
+         * Constructor
+         *
+         * @param task   The task to run.
+         * @param queued The time the task got queued at.
+         */
+        Task (@NonNull Runnable task, long queued)
+        {
+            this.task   = task;
+            this.queued = queued;
+        }
+
+        @Override
+        public void run()
+        {
+            PrintExecutor.this.run(task, queued);
+        }
+    }
+
+    /**
+     * Raises the value to the given one if it is lower.
+     *
+     * @param max   The value to raise.
+     * @param value The candidate.
+     */
+    private static void updateMax (@NonNull AtomicInteger max, int value)
+    {
+        int current;
+
+        while ((current = max.get()) < value && !max.compareAndSet(current, value))
+        {
+            // retry
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Keeps the last finished print jobs to answer what got printed when
+ * and how long it took.
+ *
+ * The entries live in parallel primitive arrays of fixed size that get
+ * overwritten in a ring, so the history costs a few array stores per job
+ * and no allocation, and its memory stays the same however long the
+ * terminal runs. Entries get converted to JSON only when queried.
+ */
+final class PrintHistory
+{
+    // The outcomes of a job
+    static final byte OK = 0, ERROR = 1, CANCELLED = 2;
+
+    // The names of the outcomes by code
+    private static final String[] OUTCOMES = { "ok", "error", "cancelled" };
+
+    // The names of the backends by code
+    private static final String[] BACKENDS = { "cielo", "android", "file", "memory", "replay" };
+
+    // The max number of jobs kept
+    private static final int CAPACITY = 512;
+
+    // The id the client assigned to the job, 0 if none
+    private static final int[] jobIds = new int[CAPACITY];
+
+    // The wall clock times in ms the job started and ended at
+    private static final long[] startedAt = new long[CAPACITY], endedAt = new long[CAPACITY];
+
+    // The number of receipt elements the printer acknowledged for the job
+    private static final int[] lines = new int[CAPACITY];
+
+    // The outcome and the backend of the job by code
+    private static final byte[] outcomes = new byte[CAPACITY], backends = new byte[CAPACITY];
+
+    // The number of jobs recorded since the app started
+    private static long recorded;
+
+    /**
+     * Constructor
+     */
+    private PrintHistory() {}
+
+    /**
+     * Records a finished job and overwrites the oldest one once full.
+     *
+     * @param jobId   The id the client assigned to the job.
+     * @param start   The wall clock time in ms the job started at.
+     * @param count   The number of receipt elements printed, 0 for documents.
+     * @param outcome One of OK, ERROR or CANCELLED.
+     * @param backend The name of the backend that printed the job.
+     */
+    static void record (int jobId, long start, int count, byte outcome,
+                        @NonNull String backend)
+    {
+        long end = System.currentTimeMillis();
+        byte code;
+
+        switch (backend)
+        {
+            case "android": code = 1; break;
+            case "file":    code = 2; break;
+            case "memory":  code = 3; break;
+            case "replay":  code = 4; break;
+            default:        code = 0;
+        }
+
+        synchronized (PrintHistory.class)
+        {
+            int slot = (int) (recorded++ % CAPACITY);
+
+            jobIds[slot]    = jobId;
+            startedAt[slot] = start;
+            endedAt[slot]   = end;
+            lines[slot]     = count;
+            outcomes[slot]  = outcome;
+            backends[slot]  = code;
+        }
+    }
+
+    /**
+     * Returns the outcome of a job by its error.
+     *
+     * @param error  The error of the job, null on success.
+     * @param ticket The ticket of the job.
+     */
+    static byte outcome (@Nullable String error, @NonNull PrintTicket ticket)
+    {
+        return outcome(error == null, ticket);
+    }
+
+    /**
+     * Returns the outcome of a job.
+     *
+     * @param completed If the job completed without errors.
+     * @param ticket    The ticket of the job.
+     */
+    static byte outcome (boolean completed, @NonNull PrintTicket ticket)
+    {
+        if (ticket.isCancelled())
+            return CANCELLED;
+
+        return completed ? OK : ERROR;
+    }
+
+    /**
+     * Returns the jobs started at or after the given time from the oldest
+     * to the newest.
+     *
+     * @param since The wall clock time in ms, 0 for all jobs kept.
+     * @param limit The max number of jobs, 0 for no limit.
+     */
+    @NonNull
+    static JSONArray query (long since, int limit)
+    {
+        JSONArray list = new JSONArray();
+
+        synchronized (PrintHistory.class)
+        {
+            long first = Math.max(0, recorded - CAPACITY);
+
+            for (long i = first; i < recorded; i++)
+            {
+                if (limit > 0 && list.length() >= limit)
+                    break;
+
+                int slot = (int) (i % CAPACITY);
+
+                if (startedAt[slot] < since)
+                    continue;
+
+                list.put(toJSON(slot));
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Converts the entry into JSON.
+     *
+     * @param slot The slot of the entry.
+     */
+    @NonNull
+    private static JSONObject toJSON (int slot)
+    {
+        JSONObject job = new JSONObject();
+
+        try {
+            job.put("jobId", jobIds[slot]);
+            job.put("start", startedAt[slot]);
+            job.put("end", endedAt[slot]);
+            job.put("duration", endedAt[slot] - startedAt[slot]);
+            job.put("lines", lines[slot]);
+            job.put("outcome", OUTCOMES[outcomes[slot]]);
+            job.put("backend", BACKENDS[backends[slot]]);
+        } catch (JSONException e) {
+            // ignore
+        }
+
+        return job;
+    }
+}
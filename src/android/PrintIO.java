@@ -26,17 +26,26 @@ import android.content.res.AssetManager;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Base64;
+import android.util.Base64InputStream;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
 import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Provides IO utility functions to deal with the resources.
@@ -68,18 +77,124 @@ class PrintIO
     static void copy (@NonNull InputStream input,
                       @NonNull OutputStream output) throws IOException
     {
-        byte[] buf = new byte[input.available()];
+        byte[] buf = new byte[8192];
         int bytesRead;
 
-        input.mark(Integer.MAX_VALUE);
+        try {
+            while ((bytesRead = input.read(buf)) > 0)
+            {
+                output.write(buf, 0, bytesRead);
+            }
+        } finally {
+            close(output);
+        }
+    }
 
-        while ((bytesRead = input.read(buf)) > 0)
-        {
-            output.write(buf, 0, bytesRead);
+    /**
+     * Transfers the content of the file to the file descriptor. The bytes
+     * are moved by the kernel without passing the Java heap.
+     *
+     * @param file The file to read from.
+     * @param dest The writable file descriptor.
+     *
+     * @throws IOException If the file is not readable,
+     *                     or the descriptor is not writable.
+     */
+    static void transfer (@NonNull File file,
+                          @NonNull FileDescriptor dest) throws IOException
+    {
+        FileInputStream input = new FileInputStream(file);
+
+        try {
+            transfer(input.getChannel(), dest);
+        } finally {
+            close(input);
         }
+    }
+
+    /**
+     * Transfers the content behind the descriptor to the file descriptor.
+     * The source descriptor stays open and can be transferred again.
+     *
+     * @param source The seekable descriptor to read from.
+     * @param dest   The writable file descriptor.
+     *
+     * @throws IOException If the source is not readable,
+     *                     or the descriptor is not writable.
+     */
+    static void transfer (@NonNull ParcelFileDescriptor source,
+                          @NonNull FileDescriptor dest) throws IOException
+    {
+        transfer(new FileInputStream(source.getFileDescriptor()).getChannel(), dest);
+    }
+
+    /**
+     * Transfers the whole channel from its start to the file descriptor.
+     *
+     * @param source The channel to read from.
+     * @param dest   The writable file descriptor.
+     *
+     * @throws IOException If the channel is not readable,
+     *                     or the descriptor is not writable.
+     */
+    private static void transfer (@NonNull FileChannel source,
+                                  @NonNull FileDescriptor dest) throws IOException
+    {
+        FileOutputStream output = new FileOutputStream(dest);
+        FileChannel target      = output.getChannel();
 
-        input.reset();
-        close(output);
+        try {
+            long size     = source.size();
+            long position = 0;
+
+            while (position < size)
+            {
+                long count = source.transferTo(position, size - position, target);
+
+                if (count <= 0)
+                    throw new IOException("Could not transfer " + size + " bytes");
+
+                position += count;
+            }
+        } finally {
+            close(output);
+        }
+    }
+
+    /**
+     * Writes the stream into a private temp file so that it can be read
+     * many times without keeping the content in memory.
+     *
+     * @param input The readable input stream. Gets closed afterwards.
+     *
+     * @return The temp file or null if the stream could not be read.
+     */
+    @Nullable
+    File spool (@NonNull InputStream input)
+    {
+        File dir = new File(context.getCacheDir(), "printer");
+        File file;
+
+        try {
+            if (!dir.exists() && !dir.mkdirs())
+                return null;
+
+            file = File.createTempFile("spool", ".tmp", dir);
+        } catch (IOException e) {
+            close(input);
+            return null;
+        }
+
+        try {
+            copy(input, new FileOutputStream(file));
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        } finally {
+            close(input);
+        }
+
+        return file;
     }
 
     /**
@@ -130,6 +245,77 @@ class PrintIO
         return BitmapFactory.decodeFile(absPath);
     }
 
+    /**
+     * Opens the descriptor of a content:// uri provided by another app or
+     * the storage access framework.
+     *
+     * @param path The content uri.
+     *
+     * @return The open descriptor or null if the uri is not accessible.
+     */
+    @Nullable
+    ParcelFileDescriptor openDescriptor (@NonNull String path)
+    {
+        try {
+            return context.getContentResolver().openFileDescriptor(Uri.parse(path), "r");
+        } catch (FileNotFoundException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Opens a content:// uri as a stream.
+     *
+     * @param path The content uri.
+     *
+     * @return An open IO stream or null if the uri is not accessible.
+     */
+    @Nullable
+    InputStream openContent (@NonNull String path)
+    {
+        ParcelFileDescriptor fd = openDescriptor(path);
+
+        return fd != null ? new ParcelFileDescriptor.AutoCloseInputStream(fd) : null;
+    }
+
+    /**
+     * Returns the mime type of a content:// uri as told by its provider.
+     *
+     * @param path The content uri.
+     *
+     * @return null if the provider does not know.
+     */
+    @Nullable
+    String getContentMimeType (@NonNull String path)
+    {
+        try {
+            return context.getContentResolver().getType(Uri.parse(path));
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes a content:// uri to a bitmap straight from its descriptor.
+     *
+     * @param path The content uri.
+     *
+     * @return A bitmap or null if the uri is not valid
+     */
+    @Nullable
+    Bitmap decodeContent (@NonNull String path)
+    {
+        ParcelFileDescriptor fd = openDescriptor(path);
+
+        if (fd == null) return null;
+
+        try {
+            return BitmapFactory.decodeFileDescriptor(fd.getFileDescriptor());
+        } finally {
+            close(fd);
+        }
+    }
+
     /**
      * Opens an asset file given as a file:// path.
      *
@@ -204,19 +390,17 @@ class PrintIO
     }
 
     /**
-     * Opens a resource file given as a res:// path.
+     * Opens the content of a base64:// string. The string gets decoded
+     * while reading, so the decoded bytes never sit in memory as a whole.
      *
-     * @param path The path to the resource.
+     * @param path The base64 encoded content.
      *
-     * @return An open IO stream or null if the file does not exist.
+     * @return An open IO stream.
      */
     @NonNull
     InputStream openBase64 (@NonNull String path)
     {
-        String data  = path.substring(9);
-        byte[] bytes = Base64.decode(data, 0);
-
-        return new ByteArrayInputStream(bytes);
+        return new Base64InputStream(new AsciiInputStream(path, 9), Base64.DEFAULT);
     }
 
     /**
@@ -229,10 +413,70 @@ class PrintIO
     @Nullable
     Bitmap decodeBase64 (@NonNull String path)
     {
-        String data  = path.substring(9);
-        byte[] bytes = Base64.decode(data, 0);
+        return decodeStream(openBase64(path));
+    }
 
-        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+    /**
+     * Opens the content of a base64gz:// string, which is the base64
+     * encoding of gzip or zlib compressed data. Decoding and inflating
+     * happen while reading.
+     *
+     * @param path The base64 encoded compressed content.
+     *
+     * @return An open IO stream.
+     *
+     * @throws IOException If the data is neither gzip nor zlib.
+     */
+    @NonNull
+    InputStream openBase64Gz (@NonNull String path) throws IOException
+    {
+        InputStream data           = new Base64InputStream(new AsciiInputStream(path, 11), Base64.DEFAULT);
+        BufferedInputStream stream = new BufferedInputStream(data, 8192);
+
+        stream.mark(2);
+
+        int magic = stream.read() | (stream.read() << 8);
+
+        stream.reset();
+
+        if (magic == GZIPInputStream.GZIP_MAGIC)
+            return new GZIPInputStream(stream, 8192);
+
+        return new InflaterInputStream(stream);
+    }
+
+    /**
+     * Decodes a resource given as a base64gz:// string to a bitmap.
+     *
+     * @param path The base64 encoded compressed content.
+     *
+     * @return A bitmap or null if the content is not valid
+     */
+    @Nullable
+    Bitmap decodeBase64Gz (@NonNull String path)
+    {
+        try {
+            return decodeStream(openBase64Gz(path));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes the stream to a bitmap and closes it.
+     *
+     * @param stream The stream to decode.
+     *
+     * @return A bitmap or null if the content is not valid
+     */
+    @Nullable
+    private static Bitmap decodeStream (@NonNull InputStream stream)
+    {
+        try {
+            return BitmapFactory.decodeStream(stream);
+        } finally {
+            close(stream);
+        }
     }
 
     /**
@@ -284,4 +528,60 @@ class PrintIO
     {
         return context.getResources();
     }
+
+    /**
+     * Reads the characters of an ASCII string as bytes without copying
+     * the string into a byte array first.
+     */
+    private static final class AsciiInputStream extends InputStream
+    {
+        // The string to read
+        private final @NonNull String data;
+
+        // The index of the next character
+        private int pos;
+
+        /**
+         * Constructor
+         *
+         * @param data   The string to read.
+         * @param offset The index of the first character to read.
+         */
+        AsciiInputStream (@NonNull String data, int offset)
+        {
+            this.data = data;
+            this.pos  = Math.min(offset, data.length());
+        }
+
+        @Override
+        public int read()
+        {
+            return pos < data.length() ? data.charAt(pos++) & 0xFF : -1;
+        }
+
+        @Override
+        public int read (@NonNull byte[] buf, int off, int len)
+        {
+            int end = Math.min(data.length(), pos + len);
+
+            if (len > 0 && pos >= end)
+                return -1;
+
+            for (int i = pos; i < end; i++)
+            {
+                buf[off++] = (byte) data.charAt(i);
+            }
+
+            len = end - pos;
+            pos = end;
+
+            return len;
+        }
+
+        @Override
+        public int available()
+        {
+            return data.length() - pos;
+        }
+    }
 }
@@ -0,0 +1,322 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs everything that reaches the Cielo printer one after the other on a
+ * single thread, so that the lines of two receipts never interleave on
+ * the roll.
+ *
+ * A print session holds the lane from its first chunk until it gets
+ * released by endPrint. Jobs queued meanwhile wait in the queue, not on
+ * the thread, and run once the session is done. A session that sends no
+ * chunk for IDLE_TIMEOUT loses the lane, so an abandoned session cannot
+ * block the printer forever.
+ */
+final class PrintLane implements Executor
+{
+    // Max number of tasks waiting for the printer
+    private static final int QUEUE_SIZE = 32;
+
+    // Time in ms after that an idle session loses the lane
+    private static final long IDLE_TIMEOUT = 60_000;
+
+    // The lane of the printer
+    private static final PrintLane instance = new PrintLane();
+
+    // The waiting tasks in order of arrival
+    private final @NonNull ArrayDeque<Task> queue = new ArrayDeque<>();
+
+    // The session that holds the lane, null if none
+    private @Nullable Holder owner;
+
+    // The time the owner ran its last task at
+    private long ownerActiveAt;
+
+    // The thread that runs the tasks, null until the first task
+    private @Nullable Thread thread;
+
+    // Number of accepted, finished, rejected and removed tasks
+    private long submitted, completed, rejected, removed;
+
+    /**
+     * Returns the lane of the printer.
+     */
+    @NonNull
+    static PrintLane getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Constructor
+     */
+    private PrintLane() {}
+
+    /**
+     * Queues a task that does not belong to a session.
+     *
+     * @param task The task to run.
+     *
+     * @throws RejectedExecutionException If the queue is full.
+     */
+    @Override
+    public void execute (@NonNull Runnable task)
+    {
+        execute(null, task);
+    }
+
+    /**
+     * Returns an executor for the tasks of a print session. Its first task
+     * takes the lane, which stays taken until release gets called.
+     */
+    @NonNull
+    Holder newHolder()
+    {
+        return new Holder();
+    }
+
+    /**
+     * Removes the task from the queue if it did not start yet.
+     *
+     * @param task The task passed to execute.
+     *
+     * @return false if the task is running or done already.
+     */
+    synchronized boolean remove (@NonNull Runnable task)
+    {
+        Iterator<Task> it = queue.iterator();
+
+        while (it.hasNext())
+        {
+            if (it.next().task == task)
+            {
+                it.remove();
+                removed++;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the statistics of the lane.
+     */
+    @NonNull
+    synchronized JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+
+        try {
+            stats.put("queued", queue.size());
+            stats.put("held", owner != null);
+            stats.put("submitted", submitted);
+            stats.put("completed", completed);
+            stats.put("rejected", rejected);
+            stats.put("removed", removed);
+        } catch (JSONException e) {
+            // ignore
+        }
+
+        return stats;
+    }
+
+    /**
+     * Queues the task and starts the thread on first use.
+     *
+     * @param holder The session the task belongs to, null if none.
+     * @param task   The task to run.
+     *
+     * @throws RejectedExecutionException If the queue is full.
+     */
+    private synchronized void execute (@Nullable Holder holder, @NonNull Runnable task)
+    {
+        if (queue.size() >= QUEUE_SIZE)
+        {
+            rejected++;
+            throw new RejectedExecutionException("Printer queue is full");
+        }
+
+        queue.add(new Task(holder, task));
+        submitted++;
+
+        if (thread == null)
+        {
+            thread = new Thread(this::loop, "printer-lane");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Lets the tasks of others run again.
+     *
+     * @param holder The session that held the lane.
+     */
+    private synchronized void release (@NonNull Holder holder)
+    {
+        if (owner == holder)
+        {
+            owner = null;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Runs the tasks one after the other.
+     */
+    private void loop()
+    {
+        while (true)
+        {
+            Task next;
+
+            try {
+                next = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                next.task.run();
+            } catch (RuntimeException e) {
+                // the task reports its own errors
+            }
+
+            synchronized (this)
+            {
+                completed++;
+
+                if (owner != null && owner == next.holder)
+                {
+                    ownerActiveAt = SystemClock.elapsedRealtime();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the first task the lane may run. While a session holds the
+     * lane, only its own tasks are eligible.
+     */
+    @NonNull
+    private synchronized Task take() throws InterruptedException
+    {
+        while (true)
+        {
+            if (owner != null && SystemClock.elapsedRealtime() - ownerActiveAt > IDLE_TIMEOUT)
+            {
+                owner = null;
+            }
+
+            for (Iterator<Task> it = queue.iterator(); it.hasNext();)
+            {
+                Task task = it.next();
+
+                if (owner == null || owner == task.holder)
+                {
+                    it.remove();
+
+                    if (task.holder != null)
+                    {
+                        owner         = task.holder;
+                        ownerActiveAt = SystemClock.elapsedRealtime();
+                    }
+
+                    return task;
+                }
+            }
+
+            if (owner != null) {
+                wait(Math.max(1, IDLE_TIMEOUT - (SystemClock.elapsedRealtime() - ownerActiveAt)));
+            } else {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks of one print session on the lane.
+     */
+    final class Holder implements Executor
+    {
+        /**
+         * Queues the task of the session.
+         *
+         * @param task The task to run.
+         *
+         * @throws RejectedExecutionException If the queue is full.
+         */
+        @Override
+        public void execute (@NonNull Runnable task)
+        {
+            PrintLane.this.execute(this, task);
+        }
+
+        /**
+         * Lets the tasks of others run again.
+         */
+        void release()
+        {
+            PrintLane.this.release(this);
+        }
+    }
+
+    /**
+     * A queued task with the session it belongs to.
+     */
+    private static final class Task
+    {
+        // The session the task belongs to, null if none
+        final @Nullable Holder holder;
+
+        // The task passed to execute
+        final @NonNull Runnable task;
+
+        /**
+         * Constructor
+         *
+         * @param holder The session the task belongs to.
+         * @param task   The task to run.
+         */
+        Task (@Nullable Holder holder, @NonNull Runnable task)
+        {
+            this.holder = holder;
+            this.task   = task;
+        }
+    }
+}
@@ -24,6 +24,8 @@ package de.appplant.cordova.plugin.printer;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.ParcelFileDescriptor;
 import android.print.PrintAttributes;
 import android.print.PrintDocumentAdapter;
 import android.print.PrintJob;
@@ -38,11 +40,14 @@ import android.webkit.WebViewClient;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.InputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
 import static android.content.Context.PRINT_SERVICE;
 import static android.os.Build.VERSION.SDK_INT;
 import static android.print.PrintJobInfo.STATE_COMPLETED;
+import static de.appplant.cordova.plugin.printer.PrintContent.ContentType.PDF;
 import static de.appplant.cordova.plugin.printer.PrintContent.ContentType.UNSUPPORTED;
 
 /**
@@ -50,9 +55,18 @@ import static de.appplant.cordova.plugin.printer.PrintContent.ContentType.UNSUPP
  */
 class PrintManager
 {
+    // Images with more pixels get printed region by region
+    private static final long MAX_BITMAP_PIXELS = 4_000_000;
+
     // The application context
     private final @NonNull Context context;
 
+    // The trace of the job the manager has been created for
+    private final @NonNull PrintTrace trace;
+
+    // The ticket of the job the manager has been created for
+    private final @NonNull PrintTicket ticket;
+
     // Reference required as long as the page does load the HTML markup
     private @Nullable WebView view;
 
@@ -64,12 +78,14 @@ class PrintManager
     PrintManager (@NonNull Context context)
     {
         this.context = context;
+        this.trace   = PrintTrace.current();
+        this.ticket  = PrintTicket.current();
     }
 
     /**
      * If the print framework is able to render the referenced file.
      *
-     * @param item Any kind of URL like file://, file:///, res:// or base64://
+     * @param item Any kind of URL like file://, file:///, res://, base64:// or content://
      *
      * @return true if its able to render the content of the file.
      */
@@ -79,7 +95,7 @@ class PrintManager
 
         if (item != null)
         {
-            supported = PrintContent.getContentType(item, context) != UNSUPPORTED;
+            supported = ContentCheck.check(item, context).type != UNSUPPORTED;
         }
 
         return supported;
@@ -117,10 +133,12 @@ class PrintManager
     void print (@Nullable String content, @NonNull JSONObject settings,
                 @NonNull WebView view, @NonNull OnPrintFinishCallback callback)
     {
-        switch (PrintContent.getContentType(content, context))
+        ContentCheck.Result check = ContentCheck.check(content, context);
+
+        switch (check.type)
         {
             case IMAGE:
-                printImage(content, settings, callback);
+                printImage(content, check, settings, callback);
                 break;
             case PDF:
                 printPdf(content, settings, callback);
@@ -133,12 +151,40 @@ class PrintManager
                 }
                 break;
             case UNSUPPORTED:
-                // TODO unsupported content
+                callback.onFinish(false);
+                break;
             case PLAIN:
                 printText(content, settings, callback);
         }
     }
 
+    /**
+     * Prints a list of images, PDF files and plain texts as one job. A
+     * single PDF file gets passed through as is to keep it vector.
+     *
+     * @param items    The file://, res:// or base64:// uris to print.
+     * @param settings Additional settings how to render the content.
+     * @param callback The function to invoke once the job is done.
+     *
+     * @throws IOException If an item cannot be printed or the list is empty.
+     */
+    void printItems (@NonNull List<String> items, @NonNull JSONObject settings,
+                     @NonNull OnPrintFinishCallback callback) throws IOException
+    {
+        if (items.size() == 1 && ContentCheck.check(items.get(0), context).type == PDF)
+        {
+            printPdf(items.get(0), settings, callback);
+            return;
+        }
+
+        List<CompositeAdapter.Part> parts = CompositeAdapter.resolve(items, context);
+        PrintOptions options              = new PrintOptions(settings);
+        String jobName                    = options.getJobName();
+        CompositeAdapter adapter          = new CompositeAdapter(context, jobName, parts, () -> callback.onFinish(isPrintJobCompleted(jobName)));
+
+        ((Activity) context).runOnUiThread(() -> printAdapter(adapter, options));
+    }
+
     /**
      * Prints the HTML content.
      *
@@ -154,7 +200,8 @@ class PrintManager
     }
 
     /**
-     * Prints the plain text content.
+     * Prints the plain text content. The text gets drawn straight onto the
+     * pages without loading it into a web view.
      *
      * @param content  The plain text to print.
      * @param settings Additional settings how to render the content.
@@ -164,7 +211,44 @@ class PrintManager
                             @NonNull JSONObject settings,
                             @NonNull OnPrintFinishCallback callback)
     {
-        printContent(content, "text/plain", settings, callback);
+        JSONObject font = settings.optJSONObject("font");
+        int size        = font != null ? font.optInt("size", 12) : 12;
+        String text     = content != null ? content : "";
+
+        printRenderer(ReceiptRenderer.forText(context, text, size), settings, callback);
+    }
+
+    /**
+     * Prints the compiled receipt. The elements get drawn straight onto
+     * the pages without loading them into a web view.
+     *
+     * @param ops      The compiled elements of the receipt.
+     * @param settings Additional settings how to render the content.
+     * @param callback The function to invoke once the job is done.
+     */
+    void printReceipt (@NonNull List<ReceiptOp> ops,
+                       @NonNull JSONObject settings,
+                       @NonNull OnPrintFinishCallback callback)
+    {
+        printRenderer(new ReceiptRenderer(context, ops), settings, callback);
+    }
+
+    /**
+     * Prints the content drawn by the renderer.
+     *
+     * @param renderer Knows how to draw the content.
+     * @param settings Additional settings how to render the content.
+     * @param callback The function to invoke once the job is done.
+     */
+    private void printRenderer (@NonNull ReceiptRenderer renderer,
+                                @NonNull JSONObject settings,
+                                @NonNull OnPrintFinishCallback callback)
+    {
+        PrintOptions options   = new PrintOptions(settings);
+        String jobName         = options.getJobName();
+        ReceiptAdapter adapter = new ReceiptAdapter(context, jobName, renderer, () -> callback.onFinish(isPrintJobCompleted(jobName)));
+
+        ((Activity) context).runOnUiThread(() -> printAdapter(adapter, options));
     }
 
     /**
@@ -180,6 +264,8 @@ class PrintManager
                                @NonNull OnPrintFinishCallback callback)
     {
         ((Activity) context).runOnUiThread(() -> {
+            int span = trace.beginAsync("render", -1);
+
             view = this.createWebView(settings);
 
             view.setWebViewClient(new WebViewClient() {
@@ -190,6 +276,7 @@ class PrintManager
 
                 @Override
                 public void onPageFinished (WebView view, String url) {
+                    trace.endAsync(span);
                     printWebView(PrintManager.this.view, settings, callback);
                     PrintManager.this.view = null;
                 }
@@ -238,14 +325,28 @@ class PrintManager
     private void printPdf (@NonNull String path, @NonNull JSONObject settings,
                            @NonNull OnPrintFinishCallback callback)
     {
-        InputStream stream    = PrintContent.open(path, context);
+        PrintOptions options    = new PrintOptions(settings);
+        String jobName          = options.getJobName();
+        Integer pageCount       = options.getPageCount();
+        ParcelFileDescriptor fd = PrintContent.openSeekable(path, context);
+
+        if (fd != null)
+        {
+            printAdapter(new PrintAdapter(jobName, pageCount, fd,
+                    () -> callback.onFinish(isPrintJobCompleted(jobName))), options);
+            return;
+        }
 
-        if (stream == null) return;
+        File file = PrintContent.spool(path, context);
 
-        PrintOptions options  = new PrintOptions(settings);
-        String jobName        = options.getJobName();
-        Integer pageCount     = options.getPageCount();
-        PrintAdapter adapter  = new PrintAdapter(jobName, pageCount, stream, () -> callback.onFinish(isPrintJobCompleted(jobName)));
+        if (file == null)
+        {
+            callback.onFinish(false);
+            return;
+        }
+
+        boolean temporary    = !PrintContent.isLocalFile(path);
+        PrintAdapter adapter = new PrintAdapter(jobName, pageCount, file, temporary, () -> callback.onFinish(isPrintJobCompleted(jobName)));
 
         printAdapter(adapter, options);
     }
@@ -262,32 +363,147 @@ class PrintManager
         String jobName        = options.getJobName();
         PrintAttributes attrs = options.toPrintAttributes();
 
-        getPrintService().print(jobName, adapter, attrs);
+        if (trace != PrintTrace.NONE)
+        {
+            adapter = new TracedAdapter(adapter, trace);
+        }
+
+        if (ticket != PrintTicket.NONE)
+        {
+            adapter = new CancellableAdapter(adapter, ticket);
+        }
+
+        PrintJob job = getPrintService().print(jobName, adapter, attrs);
+
+        ticket.onCancel(() -> ((Activity) context).runOnUiThread(() -> {
+            if (!job.isCancelled() && !job.isCompleted()) job.cancel();
+        }));
     }
 
     /**
-     * Prints the specified image by file uri.
+     * Prints the specified image by file uri. Large images never get
+     * decoded as a whole but printed region by region.
      *
      * @param path     The path to the file to print.
+     * @param check    The result of the content check with the image bounds.
      * @param settings Additional settings how to render the content.
      * @param callback The function to invoke once the job is done.
      */
-    private void printImage (@NonNull String path, @NonNull JSONObject settings,
+    private void printImage (@NonNull String path, @NonNull ContentCheck.Result check,
+                             @NonNull JSONObject settings,
                              @NonNull OnPrintFinishCallback callback)
     {
-        Bitmap bitmap        = PrintContent.decode(path, context);
+        if (printImageDescriptor(path, settings, callback))
+            return;
 
-        if (bitmap == null) return;
+        File file            = PrintContent.spool(path, context);
+
+        if (file == null)
+        {
+            callback.onFinish(false);
+            return;
+        }
 
         PrintOptions options = new PrintOptions(settings);
-        PrintHelper printer  = new PrintHelper(context);
         String jobName       = options.getJobName();
+        boolean temporary    = !PrintContent.isLocalFile(path);
+        int width            = check.width;
+        int height           = check.height;
+
+        if (!check.hasBounds())
+        {
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+
+            bounds.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(file.getPath(), bounds);
+
+            width  = bounds.outWidth;
+            height = bounds.outHeight;
+        }
+
+        if (width <= 0 || height <= 0)
+        {
+            if (temporary) file.delete();
+            callback.onFinish(false);
+            return;
+        }
+
+        if (options.isPosterMode() || (long) width * height > MAX_BITMAP_PIXELS)
+        {
+            ImageAdapter adapter = new ImageAdapter(context, jobName, file, temporary,
+                    options.isPosterMode(), width, height,
+                    () -> callback.onFinish(isPrintJobCompleted(jobName)));
+
+            ((Activity) context).runOnUiThread(() -> printAdapter(adapter, options));
+            return;
+        }
+
+        Bitmap bitmap        = BitmapFactory.decodeFile(file.getPath());
+        PrintHelper printer  = new PrintHelper(context);
+
+        if (temporary) file.delete();
+
+        if (bitmap == null)
+        {
+            callback.onFinish(false);
+            return;
+        }
 
         options.decoratePrintHelper(printer);
 
         printer.printBitmap(jobName, bitmap, () -> callback.onFinish(isPrintJobCompleted(jobName)));
     }
 
+    /**
+     * Prints the image behind a seekable content:// uri by decoding it
+     * straight from its descriptor. Images too large to decode as a whole
+     * are left to printImage as the region decoder needs a file.
+     *
+     * @param path     The content uri of the image.
+     * @param settings Additional settings how to render the content.
+     * @param callback The function to invoke once the job is done.
+     *
+     * @return false if the image has to be spooled instead.
+     */
+    private boolean printImageDescriptor (@NonNull String path, @NonNull JSONObject settings,
+                                          @NonNull OnPrintFinishCallback callback)
+    {
+        ParcelFileDescriptor fd = PrintContent.openSeekable(path, context);
+
+        if (fd == null)
+            return false;
+
+        PrintOptions options         = new PrintOptions(settings);
+        String jobName               = options.getJobName();
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        Bitmap bitmap;
+
+        try {
+            bounds.inJustDecodeBounds = true;
+            BitmapFactory.decodeFileDescriptor(fd.getFileDescriptor(), null, bounds);
+
+            if (options.isPosterMode() || (long) bounds.outWidth * bounds.outHeight > MAX_BITMAP_PIXELS)
+                return false;
+
+            bitmap = BitmapFactory.decodeFileDescriptor(fd.getFileDescriptor());
+        } finally {
+            PrintIO.close(fd);
+        }
+
+        if (bitmap == null)
+        {
+            callback.onFinish(false);
+            return true;
+        }
+
+        PrintHelper printer = new PrintHelper(context);
+
+        options.decoratePrintHelper(printer);
+        printer.printBitmap(jobName, bitmap, () -> callback.onFinish(isPrintJobCompleted(jobName)));
+
+        return true;
+    }
+
     /**
      * Creates a new web view instance that can be used for printing.
      *
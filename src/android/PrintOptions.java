@@ -58,6 +58,16 @@ class PrintOptions
         this.spec = spec;
     }
 
+    /**
+     * Returns the id the client assigned to the job to cancel it.
+     *
+     * @return 0 if the job has no id.
+     */
+    int getJobId()
+    {
+        return spec.optInt("jobId", 0);
+    }
+
     /**
      * Returns the name for the print job.
      */
@@ -83,6 +93,134 @@ class PrintOptions
         return count <= 0 ? PAGE_COUNT_UNKNOWN : count;
     }
 
+    /**
+     * Returns the name of the backend to print the receipts with.
+     * One of cielo, android, file, memory or replay.
+     */
+    @NonNull String getBackend()
+    {
+        String backend = spec.optString("backend");
+
+        return backend.isEmpty() ? "cielo" : backend.toLowerCase();
+    }
+
+    /**
+     * Returns the number of characters per line for the text backends.
+     */
+    int getColumns()
+    {
+        return spec.optInt("columns", 32);
+    }
+
+    /**
+     * Returns the max number of receipt elements sent to the printer
+     * without being acknowledged yet.
+     */
+    int getWindow()
+    {
+        return Math.max(1, spec.optInt("window", 8));
+    }
+
+    /**
+     * Returns the max time in ms the printer may take to acknowledge a
+     * receipt element before the job fails.
+     *
+     * @return 0 to wait forever.
+     */
+    long getLineTimeout()
+    {
+        return Math.max(0, spec.optLong("lineTimeout", 10_000));
+    }
+
+    /**
+     * Returns the max time in ms a receipt may take to print. Off unless
+     * given, as the line timeout already catches a stalled printer and
+     * long receipts like end-of-day reports may take minutes.
+     *
+     * @return 0 for no limit.
+     */
+    long getJobTimeout()
+    {
+        return Math.max(0, spec.optLong("jobTimeout", 0));
+    }
+
+    /**
+     * If the number of elements in flight adapts to the ack latency.
+     */
+    boolean isAdaptiveWindow()
+    {
+        return spec.optBoolean("adaptiveWindow", true);
+    }
+
+    /**
+     * If consecutive text elements with the same style get merged into
+     * one call to the printer.
+     */
+    boolean isCoalesce()
+    {
+        return spec.optBoolean("coalesce", true);
+    }
+
+    /**
+     * If receipts get drawn onto one 1-bit image for the thermal printer
+     * instead of being sent as one text call per element.
+     */
+    boolean isRaster()
+    {
+        return spec.optString("renderMode").equalsIgnoreCase("raster");
+    }
+
+    /**
+     * Returns the charset the printer font supports, used to replace the
+     * characters it cannot render.
+     *
+     * @param fallback The charset configured for the terminal.
+     *
+     * @return One of ascii, latin1 or none.
+     */
+    @NonNull String getCharset (@NonNull String fallback)
+    {
+        return spec.optString("charset", fallback);
+    }
+
+    /**
+     * Returns the font size in points to print plain text with.
+     *
+     * @param fallback The size if none was specified.
+     */
+    int getFontSize (int fallback)
+    {
+        JSONObject font = spec.optJSONObject("font");
+
+        return font != null ? font.optInt("size", fallback) : fallback;
+    }
+
+    /**
+     * If large images should be spread over several pages in their native
+     * resolution instead of being scaled down to fit into one page.
+     */
+    boolean isPosterMode()
+    {
+        return spec.optString("imageMode").equalsIgnoreCase("poster");
+    }
+
+    /**
+     * Returns the options that affect how the content gets rendered,
+     * used as part of the preview key.
+     */
+    @NonNull String getRenderKey()
+    {
+        JSONObject font = spec.optJSONObject("font");
+
+        return spec.optString("orientation") + '|'
+                + spec.opt("paper") + '|'
+                + spec.opt("margin") + '|'
+                + spec.optString("monochrome") + '|'
+                + spec.optString("duplex") + '|'
+                + spec.optBoolean("javascript", false) + '|'
+                + (font != null ? font.optInt("size", 0) : 0);
+    }
+
     /**
      * Converts the options into a PrintAttributes object.
      */
@@ -0,0 +1,587 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.pdf.PdfRenderer;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import de.appplant.cordova.plugin.printer.PrintContent.ContentType;
+
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * Renders low resolution thumbnails of the pages a print job would
+ * produce. The content gets resolved the same way as for printing and the
+ * pages are handed out one by one while the next one is still rendering.
+ *
+ * The thumbnails are cached by a hash of the content and the options.
+ * The data prepared for the preview, like the compiled receipt or the
+ * spooled copy of an encoded document, is kept for the print that
+ * usually follows.
+ */
+final class PrintPreview
+{
+    // Pixel width of the thumbnails if none was requested
+    static final int DEFAULT_WIDTH = 320;
+
+    // Max pixel width of the thumbnails
+    private static final int MAX_WIDTH = 1600;
+
+    // Size and margin of a document page in points, A4
+    private static final int PAGE_WIDTH = 595, PAGE_HEIGHT = 842, PAGE_MARGIN = 36;
+
+    // Height of a receipt strip in printer dots
+    private static final int STRIP_HEIGHT = ReceiptPipeline.HEAD_WIDTH * 4;
+
+    // Rendered pages by preview key, bounded by their encoded size
+    private static final LruCache<String, Page[]> thumbnails = new LruCache<String, Page[]>(4 * 1024 * 1024) {
+        @Override
+        protected int sizeOf (String key, Page[] pages)
+        {
+            int size = 0;
+
+            for (Page page : pages) size += page.data.length;
+
+            return size;
+        }
+    };
+
+    // Receipts compiled for a preview by the hash of their JSON content,
+    // handed over to the next print
+    private static final LruCache<String, List<ReceiptOp>> receipts = new LruCache<>(4);
+
+    // Spooled copies of encoded documents by uri, handed over to the next print
+    private static final LruCache<String, File> spooled = new LruCache<String, File>(4) {
+        @Override
+        protected void entryRemoved (boolean evicted, String key, File file, File replacement)
+        {
+            if (evicted || (replacement != null && replacement != file)) file.delete();
+        }
+    };
+
+    /**
+     * Invoked for each rendered page.
+     */
+    interface Listener
+    {
+        void onPage (@NonNull Page page, int index, int count);
+    }
+
+    /**
+     * A rendered page.
+     */
+    static final class Page
+    {
+        // The mime type of the data
+        final @NonNull String mimeType;
+
+        // The encoded image
+        final @NonNull byte[] data;
+
+        // The size of the image in pixels
+        final int width, height;
+
+        /**
+         * Constructor
+         *
+         * @param mimeType The mime type of the data.
+         * @param data     The encoded image.
+         * @param width    The width of the image.
+         * @param height   The height of the image.
+         */
+        Page (@NonNull String mimeType, @NonNull byte[] data, int width, int height)
+        {
+            this.mimeType = mimeType;
+            this.data     = data;
+            this.width    = width;
+            this.height   = height;
+        }
+    }
+
+    // The application context
+    private final @NonNull Context context;
+
+    // The wrapped settings of the job to preview
+    private final @NonNull PrintOptions options;
+
+    // The pixel width of the thumbnails
+    private final int width;
+
+    /**
+     * Constructor
+     *
+     * @param context The application context.
+     * @param options The wrapped settings of the job to preview.
+     * @param width   The requested pixel width of the thumbnails.
+     */
+    PrintPreview (@NonNull Context context, @NonNull PrintOptions options, int width)
+    {
+        this.context = context;
+        this.options = options;
+        this.width   = Math.max(16, Math.min(width > 0 ? width : DEFAULT_WIDTH, MAX_WIDTH));
+    }
+
+    /**
+     * Takes over the ops compiled for the preview of the receipt, or
+     * compiles the receipt if it has not been previewed.
+     *
+     * @param content The JSON encoded list of elements.
+     *
+     * @return The immutable list of ops.
+     *
+     * @throws InvalidElementException If any element is invalid.
+     */
+    @NonNull
+    static List<ReceiptOp> compile (@NonNull String content)
+            throws InvalidElementException
+    {
+        List<ReceiptOp> ops = receipts.size() > 0 ? receipts.remove(hash(content)) : null;
+
+        return ops != null ? ops : ReceiptCompiler.compile(content);
+    }
+
+    /**
+     * Compiles the receipt for its preview and keeps the ops for the print
+     * that usually follows.
+     *
+     * @param content The JSON encoded list of elements.
+     *
+     * @return The immutable list of ops.
+     *
+     * @throws InvalidElementException If any element is invalid.
+     */
+    @NonNull
+    static List<ReceiptOp> prepare (@NonNull String content)
+            throws InvalidElementException
+    {
+        List<ReceiptOp> ops = ReceiptCompiler.compile(content);
+
+        receipts.put(hash(content), ops);
+
+        return ops;
+    }
+
+    /**
+     * Takes over the copy spooled for the preview of the uri. The caller
+     * becomes the owner of the file.
+     *
+     * @param path The uri of the document.
+     *
+     * @return null if the uri has not been previewed.
+     */
+    @Nullable
+    static File takeSpooled (@NonNull String path)
+    {
+        File file = spooled.remove(path);
+
+        return file != null && file.isFile() ? file : null;
+    }
+
+    /**
+     * Renders the receipt as strips of the printer roll, or as pages if
+     * it gets printed through the Android print framework.
+     *
+     * @param content  The JSON content of the receipt.
+     * @param ops      The compiled and normalized elements.
+     * @param listener The listener to hand the pages to.
+     *
+     * @return The number of pages.
+     */
+    int renderReceipt (@NonNull String content, @NonNull List<ReceiptOp> ops,
+                       @NonNull Listener listener)
+    {
+        String key = getKey(content);
+        Page[] hit = thumbnails.get(key);
+
+        if (hit != null)
+            return replay(hit, listener);
+
+        boolean paged = options.getBackend().equals("android");
+        int w         = paged ? PAGE_WIDTH - 2 * PAGE_MARGIN : ReceiptPipeline.HEAD_WIDTH;
+        int h         = paged ? PAGE_HEIGHT - 2 * PAGE_MARGIN : STRIP_HEIGHT;
+
+        return render(key, new ReceiptRenderer(context, ops), w, h, paged, listener);
+    }
+
+    /**
+     * Renders the document the same way it would get printed.
+     *
+     * @param content  The content or uri of the document.
+     * @param listener The listener to hand the pages to.
+     *
+     * @return The number of pages.
+     *
+     * @throws IOException If the content cannot be previewed.
+     */
+    int render (@Nullable String content, @NonNull Listener listener)
+            throws IOException
+    {
+        ContentType type = ContentCheck.check(content, context).type;
+        String path      = content != null ? content : "";
+        String key       = getKey(path + '\0' + ContentCheck.getVersion(path, context));
+        Page[] hit       = thumbnails.get(key);
+
+        if (hit != null)
+            return replay(hit, listener);
+
+        switch (type)
+        {
+            case PLAIN:
+                return render(key, ReceiptRenderer.forText(context, path, options.getFontSize(12)),
+                        PAGE_WIDTH - 2 * PAGE_MARGIN, PAGE_HEIGHT - 2 * PAGE_MARGIN,
+                        true, listener);
+            case IMAGE:
+                return renderImage(key, path, listener);
+            case PDF:
+                return renderPdf(key, path, listener);
+            default:
+                throw new IOException("Conteúdo não suportado");
+        }
+    }
+
+    /**
+     * Lays out the content drawn by the renderer and renders page by page.
+     *
+     * @param key      The preview key.
+     * @param renderer Knows how to draw the content.
+     * @param w        The width of the content area.
+     * @param h        The height of the content area.
+     * @param paged    If the content area sits on a page with margins.
+     * @param listener The listener to hand the pages to.
+     *
+     * @return The number of pages.
+     */
+    private int render (@NonNull String key, @NonNull ReceiptRenderer renderer,
+                        int w, int h, boolean paged, @NonNull Listener listener)
+    {
+        int margin  = paged ? PAGE_MARGIN : 0;
+        float scale = (float) width / (w + 2 * margin);
+        int height  = Math.max(1, Math.round((h + 2 * margin) * scale));
+
+        try {
+            int count    = renderer.layout(w, h);
+            Page[] pages = new Page[count];
+
+            for (int i = 0; i < count; i++)
+            {
+                Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                Canvas canvas = new Canvas(bitmap);
+
+                bitmap.eraseColor(Color.WHITE);
+                canvas.scale(scale, scale);
+                canvas.translate(margin, margin);
+                renderer.draw(i, canvas);
+
+                pages[i] = encode(bitmap, Bitmap.CompressFormat.PNG);
+                listener.onPage(pages[i], i, count);
+            }
+
+            thumbnails.put(key, pages);
+
+            return count;
+        } finally {
+            renderer.recycle();
+        }
+    }
+
+    /**
+     * Decodes the image scaled down close to the thumbnail width.
+     *
+     * @param key      The preview key.
+     * @param path     The uri of the image.
+     * @param listener The listener to hand the page to.
+     *
+     * @return Always 1.
+     *
+     * @throws IOException If the image cannot be decoded.
+     */
+    private int renderImage (@NonNull String key, @NonNull String path,
+                             @NonNull Listener listener) throws IOException
+    {
+        File file                    = spool(path);
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), bounds);
+
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0)
+            throw new IOException("Imagem inválida");
+
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+
+        opts.inSampleSize = 1;
+
+        while (bounds.outWidth / (opts.inSampleSize * 2) >= width)
+        {
+            opts.inSampleSize *= 2;
+        }
+
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), opts);
+
+        if (bitmap == null)
+            throw new IOException("Imagem inválida");
+
+        if (bitmap.getWidth() > width)
+        {
+            int height    = Math.max(1, bitmap.getHeight() * width / bitmap.getWidth());
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+
+            bitmap.recycle();
+            bitmap = scaled;
+        }
+
+        Page page = encode(bitmap, Bitmap.CompressFormat.JPEG);
+
+        listener.onPage(page, 0, 1);
+        thumbnails.put(key, new Page[]{ page });
+
+        return 1;
+    }
+
+    /**
+     * Renders the pages of the PDF document behind the uri.
+     *
+     * @param key      The preview key.
+     * @param path     The uri of the document.
+     * @param listener The listener to hand the pages to.
+     *
+     * @return The number of pages.
+     *
+     * @throws IOException If the document cannot be rendered.
+     */
+    private int renderPdf (@NonNull String key, @NonNull String path,
+                           @NonNull Listener listener) throws IOException
+    {
+        ParcelFileDescriptor fd = PrintContent.openSeekable(path, context);
+
+        if (fd == null)
+        {
+            fd = ParcelFileDescriptor.open(spool(path), ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+
+        return renderPdf(key, fd, listener);
+    }
+
+    /**
+     * Renders the pages of the PDF file.
+     *
+     * @param key      The preview key.
+     * @param file     The PDF file.
+     * @param listener The listener to hand the pages to.
+     *
+     * @return The number of pages.
+     *
+     * @throws IOException If the document cannot be rendered.
+     */
+    private int renderPdf (@NonNull String key, @NonNull File file,
+                           @NonNull Listener listener) throws IOException
+    {
+        return renderPdf(key, ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY), listener);
+    }
+
+    /**
+     * Renders the pages of the PDF document page by page.
+     *
+     * @param key      The preview key.
+     * @param fd       The seekable descriptor of the document. Gets closed.
+     * @param listener The listener to hand the pages to.
+     *
+     * @return The number of pages.
+     *
+     * @throws IOException If the document cannot be rendered.
+     */
+    @TargetApi(21)
+    private int renderPdf (@NonNull String key, @NonNull ParcelFileDescriptor fd,
+                           @NonNull Listener listener) throws IOException
+    {
+        if (SDK_INT < 21)
+        {
+            PrintIO.close(fd);
+            throw new IOException("Pré-visualização de PDF requer Android 5.0");
+        }
+
+        PdfRenderer renderer = new PdfRenderer(fd);
+
+        try {
+            int count    = renderer.getPageCount();
+            Page[] pages = new Page[count];
+
+            for (int i = 0; i < count; i++)
+            {
+                PdfRenderer.Page page = renderer.openPage(i);
+                int height            = Math.max(1, page.getHeight() * width / page.getWidth());
+                Bitmap bitmap         = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+
+                bitmap.eraseColor(Color.WHITE);
+                page.render(bitmap, null, null, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+                page.close();
+
+                pages[i] = encode(bitmap, Bitmap.CompressFormat.JPEG);
+                listener.onPage(pages[i], i, count);
+            }
+
+            thumbnails.put(key, pages);
+
+            return count;
+        } finally {
+            renderer.close();
+        }
+    }
+
+    /**
+     * Returns a file with the content of the uri. Copies of encoded or
+     * remote content are kept for the print that follows.
+     *
+     * @param path The uri of the document.
+     *
+     * @throws IOException If the content cannot be read.
+     */
+    @NonNull
+    private File spool (@NonNull String path) throws IOException
+    {
+        if (PrintContent.isLocalFile(path))
+        {
+            return new File(path.substring(7));
+        }
+
+        File file = spooled.get(path);
+
+        if (file != null && file.isFile())
+            return file;
+
+        file = PrintContent.spool(path, context);
+
+        if (file == null)
+            throw new IOException("Conteúdo ilegível");
+
+        spooled.put(path, file);
+
+        return file;
+    }
+
+    /**
+     * Hands the cached pages to the listener.
+     *
+     * @param pages    The cached pages.
+     * @param listener The listener to hand the pages to.
+     *
+     * @return The number of pages.
+     */
+    private static int replay (@NonNull Page[] pages, @NonNull Listener listener)
+    {
+        for (int i = 0; i < pages.length; i++)
+        {
+            listener.onPage(pages[i], i, pages.length);
+        }
+
+        return pages.length;
+    }
+
+    /**
+     * Returns the key of the thumbnails for the content.
+     *
+     * @param content The content to preview.
+     */
+    @NonNull
+    private String getKey (@NonNull String content)
+    {
+        return hash(content + '\0' + options.getRenderKey()) + '|' + options.getBackend()
+                + '|' + options.getCharset("") + '|' + width;
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 hash of the text.
+     *
+     * @param text The text to hash.
+     */
+    @NonNull
+    static String hash (@NonNull String text)
+    {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return toHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Returns the bytes as lower case hex string.
+     *
+     * @param bytes The bytes to encode.
+     */
+    @NonNull
+    static String toHex (@NonNull byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes)
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16))
+               .append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * Compresses the bitmap and recycles it.
+     *
+     * @param bitmap The rendered page.
+     * @param format PNG for text, JPEG for photos and documents.
+     */
+    @NonNull
+    private static Page encode (@NonNull Bitmap bitmap, @NonNull Bitmap.CompressFormat format)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean png               = format == Bitmap.CompressFormat.PNG;
+
+        bitmap.compress(format, png ? 100 : 80, out);
+
+        Page page = new Page(png ? "image/png" : "image/jpeg", out.toByteArray(),
+                bitmap.getWidth(), bitmap.getHeight());
+
+        bitmap.recycle();
+
+        return page;
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONArray;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records the calls of the client and the interactions with the backends
+ * into a compact file, to replay the traffic of a terminal offline with
+ * the PrintReplay.
+ *
+ * The file is a gzip compressed stream that starts with MAGIC, VERSION
+ * and the wall clock time the recording started at. Each record starts
+ * with its type and the time in µs since the start as varint:
+ *
+ *   CALL:    action as UTF, args as varint length and UTF-8 JSON
+ *   BACKEND: job id as varint, kind, element count as varint,
+ *            duration in µs as varint, 1 if failed else 0, backend as UTF
+ *   SESSION: id of the session opened by the last beginPrint as varint
+ *
+ * While no recording is running the hooks return after reading one
+ * volatile field. While recording, the hooks only take the time and hand
+ * the record over to a writer thread, which serializes and compresses it.
+ * The arguments of the calls are not modified by the plugin, so they get
+ * converted to JSON on the writer thread as well. If the writer falls
+ * more than QUEUE_SIZE records behind, the recording stops, since a gap
+ * would let the replay diverge.
+ */
+final class PrintRecorder
+{
+    // The first bytes of a recording
+    static final int MAGIC = 0x50524543;
+
+    // The version of the format
+    static final int VERSION = 1;
+
+    // The record types
+    static final int CALL = 1, BACKEND = 2, SESSION = 3;
+
+    // The kinds of backend interactions
+    static final int PRINT = 0, APPEND = 1, FINISH = 2;
+
+    // Max number of records waiting for the writer
+    private static final int QUEUE_SIZE = 256;
+
+    // Max time in seconds stop waits for the pending records
+    private static final long STOP_TIMEOUT = 10;
+
+    // The writer of the running recording, null if none
+    private static volatile @Nullable Writer writer;
+
+    // The file of the running recording
+    private static @Nullable File file;
+
+    // The time in ns the recording started at
+    private static long origin;
+
+    /**
+     * Writes one record to the stream.
+     */
+    private interface Record
+    {
+        void write (@NonNull DataOutputStream stream) throws IOException;
+    }
+
+    /**
+     * Constructor
+     */
+    private PrintRecorder() {}
+
+    /**
+     * Starts a new recording and stops the running one.
+     *
+     * @param target The file to write the recording to.
+     *
+     * @throws IOException If the file cannot be created.
+     */
+    static void start (@NonNull File target) throws IOException
+    {
+        Writer previous;
+
+        stop();
+
+        File dir = target.getParentFile();
+
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+
+        DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(target)), 8192));
+
+        stream.writeInt(MAGIC);
+        stream.writeByte(VERSION);
+        stream.writeLong(System.currentTimeMillis());
+
+        synchronized (PrintRecorder.class)
+        {
+            previous = writer;
+            file     = target;
+            origin   = SystemClock.elapsedRealtimeNanos();
+            writer   = new Writer(stream);
+        }
+
+        if (previous != null) previous.shutdown();
+    }
+
+    /**
+     * Stops the running recording, waits until the pending records are
+     * written and completes its file. The lock is not held while waiting,
+     * so that the writer can abort meanwhile.
+     *
+     * @return The file of the recording or null if none was running.
+     */
+    @Nullable
+    static File stop()
+    {
+        Writer executor;
+        File target;
+
+        synchronized (PrintRecorder.class)
+        {
+            executor = writer;
+            target   = file;
+            writer   = null;
+            file     = null;
+        }
+
+        if (executor == null)
+            return null;
+
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(STOP_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return target;
+    }
+
+    /**
+     * If a recording is running.
+     */
+    static boolean isRecording()
+    {
+        return writer != null;
+    }
+
+    /**
+     * Records a call of the client.
+     *
+     * @param action The name of the action.
+     * @param args   The arguments of the call.
+     */
+    static void call (@NonNull String action, @NonNull JSONArray args)
+    {
+        Writer executor = writer;
+
+        if (executor == null)
+            return;
+
+        long time = getTime(SystemClock.elapsedRealtimeNanos());
+
+        executor.post(stream -> {
+            byte[] json = args.toString().getBytes(StandardCharsets.UTF_8);
+
+            stream.writeByte(CALL);
+            writeVarLong(stream, time);
+            stream.writeUTF(action);
+            writeVarLong(stream, json.length);
+            stream.write(json);
+        });
+    }
+
+    /**
+     * Records the id of the session opened by beginPrint, so that the
+     * replay can map the ids the client passes to appendElements and
+     * endPrint.
+     *
+     * @param id The id of the session.
+     */
+    static void session (int id)
+    {
+        Writer executor = writer;
+
+        if (executor == null)
+            return;
+
+        long time = getTime(SystemClock.elapsedRealtimeNanos());
+
+        executor.post(stream -> {
+            stream.writeByte(SESSION);
+            writeVarLong(stream, time);
+            writeVarLong(stream, id);
+        });
+    }
+
+    /**
+     * Wraps the backend to record its interactions while recording.
+     *
+     * @param backend The backend to wrap.
+     *
+     * @return The backend itself if no recording is running.
+     */
+    @NonNull
+    static PrintBackend wrap (@NonNull PrintBackend backend)
+    {
+        return writer != null ? new RecordingBackend(backend) : backend;
+    }
+
+    /**
+     * Records a finished interaction with a backend.
+     *
+     * @param kind    One of PRINT, APPEND or FINISH.
+     * @param count   The number of elements passed to the backend.
+     * @param start   The time in ns the interaction started at.
+     * @param failed  If the backend returned an error.
+     * @param backend The name of the backend.
+     */
+    private static void backend (int kind, int count, long start, boolean failed,
+                                 @NonNull String backend)
+    {
+        Writer executor = writer;
+
+        if (executor == null)
+            return;
+
+        long end  = SystemClock.elapsedRealtimeNanos();
+        int jobId = PrintTicket.current().id;
+        long time = getTime(start);
+
+        executor.post(stream -> {
+            stream.writeByte(BACKEND);
+            writeVarLong(stream, time);
+            writeVarLong(stream, jobId);
+            stream.writeByte(kind);
+            writeVarLong(stream, count);
+            writeVarLong(stream, (end - start) / 1000);
+            stream.writeByte(failed ? 1 : 0);
+            stream.writeUTF(backend);
+        });
+    }
+
+    /**
+     * Returns the time in µs since the recording started.
+     *
+     * @param nanos The elapsed realtime in ns.
+     */
+    private static long getTime (long nanos)
+    {
+        return Math.max(0, nanos - origin) / 1000;
+    }
+
+    /**
+     * Stops the recording after a write error, like a full disk, or if
+     * the writer fell too far behind. Drops the pending records.
+     *
+     * @param executor The writer of the recording.
+     */
+    private static void abort (@NonNull Writer executor)
+    {
+        synchronized (PrintRecorder.class)
+        {
+            if (writer == executor)
+            {
+                writer = null;
+                file   = null;
+            }
+        }
+
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the backend behind the recording wrapper.
+     *
+     * @param backend The backend that may be wrapped.
+     */
+    @NonNull
+    static PrintBackend unwrap (@NonNull PrintBackend backend)
+    {
+        return backend instanceof RecordingBackend
+                ? ((RecordingBackend) backend).getDelegate()
+                : backend;
+    }
+
+    /**
+     * Writes a positive number with 7 bits per byte, least significant
+     * group first.
+     *
+     * @param stream The stream to write to.
+     * @param value  The number to write.
+     */
+    private static void writeVarLong (@NonNull DataOutputStream stream, long value)
+            throws IOException
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            stream.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        stream.writeByte((int) value);
+    }
+
+    /**
+     * The thread that writes the records of one recording into its
+     * stream. The stream gets closed once the thread terminated.
+     */
+    private static final class Writer extends ThreadPoolExecutor
+    {
+        // The stream of the recording, only used by the writer thread
+        private final @NonNull DataOutputStream stream;
+
+        /**
+         * Constructor
+         *
+         * @param stream The stream of the recording.
+         */
+        Writer (@NonNull DataOutputStream stream)
+        {
+            super(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(QUEUE_SIZE),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "printer-recorder");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+            this.stream = stream;
+        }
+
+        /**
+         * Hands the record over to the writer thread. Stops the recording
+         * if the writer fell too far behind.
+         *
+         * @param record The record to write.
+         */
+        void post (@NonNull Record record)
+        {
+            try {
+                execute(() -> {
+                    try {
+                        record.write(stream);
+                    } catch (IOException e) {
+                        abort(this);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                abort(this);
+            }
+        }
+
+        @Override
+        protected void terminated()
+        {
+            PrintIO.close(stream);
+        }
+    }
+
+    /**
+     * Records the calls to the wrapped backend.
+     */
+    private static final class RecordingBackend implements PrintBackend
+    {
+        // The backend to record
+        private final @NonNull PrintBackend delegate;
+
+        /**
+         * Constructor
+         *
+         * @param delegate The backend to record.
+         */
+        RecordingBackend (@NonNull PrintBackend delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @NonNull
+        @Override
+        public String getName()
+        {
+            return delegate.getName();
+        }
+
+        @Nullable
+        @Override
+        public String print (@NonNull List<ReceiptOp> ops) throws Exception
+        {
+            long start     = SystemClock.elapsedRealtimeNanos();
+            boolean failed = true;
+            String error;
+
+            try {
+                error  = delegate.print(ops);
+                failed = error != null;
+            } finally {
+                backend(PRINT, ops.size(), start, failed, getName());
+            }
+
+            return error;
+        }
+
+        @Nullable
+        @Override
+        public String append (@NonNull List<ReceiptOp> ops) throws Exception
+        {
+            long start     = SystemClock.elapsedRealtimeNanos();
+            boolean failed = true;
+            String error;
+
+            try {
+                error  = delegate.append(ops);
+                failed = error != null;
+            } finally {
+                backend(APPEND, ops.size(), start, failed, getName());
+            }
+
+            return error;
+        }
+
+        @Nullable
+        @Override
+        public String finish() throws Exception
+        {
+            long start     = SystemClock.elapsedRealtimeNanos();
+            boolean failed = true;
+            String error;
+
+            try {
+                error  = delegate.finish();
+                failed = error != null;
+            } finally {
+                backend(FINISH, 0, start, failed, getName());
+            }
+
+            return error;
+        }
+
+        @Override
+        public void abort()
+        {
+            delegate.abort();
+        }
+
+        @Override
+        public int getPrinted()
+        {
+            return delegate.getPrinted();
+        }
+
+        /**
+         * Returns the wrapped backend, like to read the output of the
+         * file backend.
+         */
+        @NonNull
+        PrintBackend getDelegate()
+        {
+            return delegate;
+        }
+    }
+}
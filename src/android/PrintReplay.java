@@ -0,0 +1,590 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replays a file written by the PrintRecorder against the replay backend,
+ * a memory backend that takes as long as the recorded backend did. The
+ * calls get issued at their recorded times, divided by the speed factor,
+ * so that the queue, the pipeline and the traces behave like on the
+ * terminal the recording comes from.
+ *
+ * Jobs printed through the Android print framework are skipped as they
+ * need the print dialog. A recording cut off by a crash gets replayed up
+ * to its last complete record.
+ */
+final class PrintReplay
+{
+    // Max time in ms to wait for the replayed jobs after the last call
+    private static final long DRAIN_TIMEOUT = 120_000;
+
+    // The recorded durations in µs of the backend interactions by job and kind
+    private static final Map<String, ArrayDeque<Long>> durations = new HashMap<>();
+
+    // The speed factor of the running replay, 0 for no delays
+    private static volatile float speed;
+
+    // If a replay is running
+    private static boolean running;
+
+    /**
+     * Dispatches a replayed call to the plugin.
+     */
+    interface Dispatcher
+    {
+        boolean dispatch (@NonNull String action, @NonNull JSONArray args,
+                          @NonNull CallbackContext callback);
+    }
+
+    /**
+     * A recorded call of the client.
+     */
+    private static final class Call
+    {
+        // The time in µs since the recording started
+        final long time;
+
+        // The name of the action
+        final @NonNull String action;
+
+        // The JSON encoded arguments
+        final @NonNull String args;
+
+        // The id of the session the call opened, 0 if none
+        int session;
+
+        /**
+         * Constructor
+         *
+         * @param time   The time in µs since the recording started.
+         * @param action The name of the action.
+         * @param args   The JSON encoded arguments.
+         */
+        Call (long time, @NonNull String action, @NonNull String args)
+        {
+            this.time   = time;
+            this.action = action;
+            this.args   = args;
+        }
+    }
+
+    // The recording to replay
+    private final @NonNull File file;
+
+    // The plugin to send the calls to
+    private final @NonNull Dispatcher dispatcher;
+
+    // The calls of the recording in recorded order
+    private final @NonNull List<Call> calls = new ArrayList<>();
+
+    // The number of calls without final result
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // The number of calls that ended with an error
+    private final AtomicInteger failed = new AtomicInteger();
+
+    // The replayed session ids by recorded id
+    private final @NonNull Map<Integer, Integer> sessions = new HashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param file       The recording to replay.
+     * @param dispatcher The plugin to send the calls to.
+     */
+    PrintReplay (@NonNull File file, @NonNull Dispatcher dispatcher)
+    {
+        this.file       = file;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Creates the backend the replayed jobs print with.
+     *
+     * @param columns Number of characters per line of the output.
+     */
+    @NonNull
+    static PrintBackend createBackend (int columns)
+    {
+        return new ReplayBackend(columns);
+    }
+
+    /**
+     * Replays the recording and waits until the replayed jobs are done.
+     *
+     * @param factor The speed factor, 1 for the original speed, 0 to issue
+     *               the calls without any delay.
+     *
+     * @return The number of replayed, skipped and failed calls and the
+     *         duration of the recording and the replay in ms.
+     *
+     * @throws IOException          If the file is not a recording.
+     * @throws InterruptedException If the thread got interrupted.
+     */
+    @NonNull
+    JSONObject run (float factor) throws IOException, InterruptedException
+    {
+        synchronized (PrintReplay.class)
+        {
+            if (running)
+                throw new IOException("Reprodução já em andamento");
+
+            running = true;
+            speed   = Math.max(0, factor);
+            durations.clear();
+        }
+
+        try {
+            read();
+            return replay();
+        } finally {
+            synchronized (PrintReplay.class)
+            {
+                running = false;
+                speed   = 0;
+                durations.clear();
+            }
+        }
+    }
+
+    /**
+     * Issues the calls at their recorded times.
+     *
+     * @return The summary of the replay.
+     */
+    @NonNull
+    private JSONObject replay() throws InterruptedException
+    {
+        long origin  = SystemClock.elapsedRealtime();
+        int replayed = 0;
+        int skipped  = 0;
+
+        for (Call call : calls)
+        {
+            long delay = speed > 0
+                    ? origin + (long) (call.time / 1000 / speed) - SystemClock.elapsedRealtime()
+                    : 0;
+
+            if (delay > 0)
+            {
+                Thread.sleep(delay);
+            }
+
+            JSONArray args = prepare(call);
+
+            if (args == null)
+            {
+                skipped++;
+                continue;
+            }
+
+            ReplayCallback callback = new ReplayCallback();
+
+            pending.incrementAndGet();
+            replayed++;
+
+            if (!dispatcher.dispatch(call.action, args, callback))
+            {
+                onResult(false);
+                continue;
+            }
+
+            if (call.session != 0)
+            {
+                int id = callback.getSessionId();
+
+                if (id != 0) sessions.put(call.session, id);
+            }
+        }
+
+        synchronized (this)
+        {
+            long deadline = SystemClock.elapsedRealtime() + DRAIN_TIMEOUT;
+            long wait;
+
+            while (pending.get() > 0
+                    && (wait = deadline - SystemClock.elapsedRealtime()) > 0)
+            {
+                wait(wait);
+            }
+        }
+
+        JSONObject summary = new JSONObject();
+
+        try {
+            summary.put("calls", replayed);
+            summary.put("skipped", skipped);
+            summary.put("failed", failed.get());
+            summary.put("pending", pending.get());
+            summary.put("recorded", calls.isEmpty() ? 0 : calls.get(calls.size() - 1).time / 1000);
+            summary.put("duration", SystemClock.elapsedRealtime() - origin);
+        } catch (JSONException e) {
+            // ignore
+        }
+
+        return summary;
+    }
+
+    /**
+     * Returns the arguments of the call with the backend replaced by the
+     * replay backend and the session ids replaced by the replayed ones.
+     *
+     * @param call The recorded call.
+     *
+     * @return null if the call cannot be replayed.
+     */
+    @Nullable
+    private JSONArray prepare (@NonNull Call call)
+    {
+        JSONArray args;
+
+        if (call.action.equalsIgnoreCase("record") || call.action.equalsIgnoreCase("replay"))
+            return null;
+
+        try {
+            args = new JSONArray(call.args);
+
+            if (call.action.equalsIgnoreCase("appendElements")
+                    || call.action.equalsIgnoreCase("endPrint"))
+            {
+                Integer id = sessions.get(args.optInt(0));
+
+                if (id == null) return null;
+
+                args.put(0, id.intValue());
+            }
+
+            for (int i = 0; i < args.length(); i++)
+            {
+                JSONObject settings = args.optJSONObject(i);
+
+                if (settings == null)
+                    continue;
+
+                if (settings.optString("backend").equalsIgnoreCase("android"))
+                    return null;
+
+                settings.put("backend", "replay");
+            }
+        } catch (JSONException e) {
+            return null;
+        }
+
+        return args;
+    }
+
+    /**
+     * Reads the calls and the durations of the backend interactions.
+     * Stops at the end of the last complete record.
+     *
+     * @throws IOException If the file is not a recording.
+     */
+    private void read() throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file)), 8192));
+        Call last          = null;
+
+        try {
+            if (in.readInt() != PrintRecorder.MAGIC || in.readUnsignedByte() > PrintRecorder.VERSION)
+                throw new IOException("Gravação inválida");
+
+            in.readLong();
+
+            while (true)
+            {
+                int type  = in.read();
+                long time;
+
+                if (type < 0) break;
+
+                time = readVarLong(in);
+
+                if (type == PrintRecorder.CALL)
+                {
+                    String action = in.readUTF();
+                    byte[] json   = new byte[(int) readVarLong(in)];
+
+                    in.readFully(json);
+
+                    last = new Call(time, action, new String(json, StandardCharsets.UTF_8));
+                    calls.add(last);
+                }
+                else if (type == PrintRecorder.BACKEND)
+                {
+                    int jobId = (int) readVarLong(in);
+                    int kind  = in.readUnsignedByte();
+
+                    readVarLong(in);
+
+                    long duration = readVarLong(in);
+
+                    in.readUnsignedByte();
+                    in.readUTF();
+
+                    addDuration(jobId, kind, duration);
+                }
+                else if (type == PrintRecorder.SESSION)
+                {
+                    int id = (int) readVarLong(in);
+
+                    if (last != null && last.action.equalsIgnoreCase("beginPrint"))
+                    {
+                        last.session = id;
+                    }
+                }
+                else
+                {
+                    throw new IOException("Gravação inválida");
+                }
+            }
+        } catch (EOFException e) {
+            // cut off recording
+        } finally {
+            PrintIO.close(in);
+        }
+    }
+
+    /**
+     * Invoked once a replayed call got its final result.
+     *
+     * @param ok If the call succeeded.
+     */
+    private void onResult (boolean ok)
+    {
+        if (!ok) failed.incrementAndGet();
+
+        if (pending.decrementAndGet() == 0)
+        {
+            synchronized (this)
+            {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Queues the recorded duration for the replay backend.
+     *
+     * @param jobId    The id of the job the interaction belongs to.
+     * @param kind     One of PrintRecorder.PRINT, APPEND or FINISH.
+     * @param duration The duration in µs.
+     */
+    private static synchronized void addDuration (int jobId, int kind, long duration)
+    {
+        String key             = jobId + ":" + kind;
+        ArrayDeque<Long> queue = durations.get(key);
+
+        if (queue == null)
+        {
+            queue = new ArrayDeque<>();
+            durations.put(key, queue);
+        }
+
+        queue.add(duration);
+    }
+
+    /**
+     * Takes the next recorded duration of the interaction.
+     *
+     * @param jobId The id of the job the interaction belongs to.
+     * @param kind  One of PrintRecorder.PRINT, APPEND or FINISH.
+     *
+     * @return The duration in µs or 0 if none was recorded.
+     */
+    private static synchronized long takeDuration (int jobId, int kind)
+    {
+        ArrayDeque<Long> queue = durations.get(jobId + ":" + kind);
+        Long duration          = queue != null ? queue.poll() : null;
+
+        return duration != null ? duration : 0;
+    }
+
+    /**
+     * Reads a number written by PrintRecorder.writeVarLong.
+     *
+     * @param in The stream to read from.
+     */
+    private static long readVarLong (@NonNull DataInputStream in) throws IOException
+    {
+        long value = 0;
+        int shift  = 0;
+        int b;
+
+        do {
+            if (shift > 63)
+                throw new IOException("Gravação inválida");
+
+            b      = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    /**
+     * Collects the results of a replayed call instead of sending them to
+     * the web view.
+     */
+    private final class ReplayCallback extends CallbackContext
+    {
+        // The message of the last result
+        private volatile @Nullable Object message;
+
+        // If the final result was received
+        private boolean done;
+
+        /**
+         * Constructor
+         */
+        ReplayCallback()
+        {
+            super("replay", null);
+        }
+
+        @Override
+        public void sendPluginResult (PluginResult result)
+        {
+            message = result.getMessage();
+
+            if (result.getKeepCallback())
+                return;
+
+            synchronized (this)
+            {
+                if (done) return;
+                done = true;
+            }
+
+            onResult(result.getStatus() == PluginResult.Status.OK.ordinal());
+        }
+
+        /**
+         * Returns the session id passed to the callback of beginPrint.
+         *
+         * @return 0 if none was passed.
+         */
+        int getSessionId()
+        {
+            Object value = message;
+
+            try {
+                return value != null ? Integer.parseInt(value.toString()) : 0;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Renders the receipts in memory and takes as long as the backend
+     * did when the jobs got recorded.
+     */
+    private static final class ReplayBackend extends FileBackend
+    {
+        /**
+         * Constructor
+         *
+         * @param columns Number of characters per line of the output.
+         */
+        ReplayBackend (int columns)
+        {
+            super(null, columns);
+        }
+
+        @Nullable
+        @Override
+        public String print (@NonNull List<ReceiptOp> ops) throws Exception
+        {
+            String error = super.print(ops);
+
+            delay(PrintRecorder.PRINT);
+
+            return error;
+        }
+
+        @Nullable
+        @Override
+        public String append (@NonNull List<ReceiptOp> ops) throws Exception
+        {
+            String error = super.append(ops);
+
+            delay(PrintRecorder.APPEND);
+
+            return error;
+        }
+
+        @Nullable
+        @Override
+        public String finish() throws Exception
+        {
+            String error = super.finish();
+
+            delay(PrintRecorder.FINISH);
+
+            return error;
+        }
+
+        /**
+         * Sleeps for the recorded duration of the interaction divided by
+         * the speed factor.
+         *
+         * @param kind One of PrintRecorder.PRINT, APPEND or FINISH.
+         */
+        private static void delay (int kind) throws InterruptedException
+        {
+            float factor  = speed;
+            long duration = takeDuration(PrintTicket.current().id, kind);
+
+            if (factor > 0 && duration > 0)
+            {
+                Thread.sleep((long) (duration / 1000 / factor));
+            }
+        }
+    }
+}
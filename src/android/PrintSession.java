@@ -0,0 +1,196 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A receipt that arrives in several chunks through beginPrint,
+ * appendElements and endPrint. The chunks are compiled and sent to the
+ * backend one after the other in the order they arrived, while the
+ * backend keeps printing the previous ones.
+ */
+final class PrintSession
+{
+    // The id the client refers to the session with
+    final int id;
+
+    // The wrapped settings of the session
+    final @NonNull PrintOptions options;
+
+    // The backend the chunks are sent to
+    final @NonNull PrintBackend backend;
+
+    // The trace of the session
+    final @NonNull PrintTrace trace;
+
+    // The ticket to cancel the session with
+    final @NonNull PrintTicket ticket;
+
+    // The wall clock time the session started at
+    final long startedAt = System.currentTimeMillis();
+
+    // The executor to run the tasks on
+    private final @NonNull Executor executor;
+
+    // The tasks waiting for the previous one to finish
+    private final @NonNull ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+    // If a task is running right now
+    private boolean running;
+
+    // The number of elements received so far
+    private int count;
+
+    // The first error, further chunks get rejected once set
+    private volatile @Nullable String error;
+
+    /**
+     * Constructor
+     *
+     * @param id       The id of the session.
+     * @param options  The wrapped settings of the session.
+     * @param backend  The backend to send the chunks to.
+     * @param trace    The trace of the session.
+     * @param ticket   The ticket to cancel the session with.
+     * @param executor The executor to run the tasks on.
+     */
+    PrintSession (int id, @NonNull PrintOptions options,
+                  @NonNull PrintBackend backend, @NonNull PrintTrace trace,
+                  @NonNull PrintTicket ticket, @NonNull Executor executor)
+    {
+        this.id       = id;
+        this.options  = options;
+        this.backend  = backend;
+        this.trace    = trace;
+        this.ticket   = ticket;
+        this.executor = executor;
+
+        ticket.onCancel(() -> fail("Impressão cancelada"));
+    }
+
+    /**
+     * Queues the task behind all previous tasks of the session.
+     *
+     * @param task The task to run.
+     *
+     * @throws RejectedExecutionException If the executor is saturated.
+     */
+    synchronized void submit (@NonNull Runnable task)
+    {
+        Runnable wrapped = () -> {
+            try {
+                task.run();
+            } finally {
+                scheduleNext();
+            }
+        };
+
+        if (running)
+        {
+            tasks.add(wrapped);
+            return;
+        }
+
+        executor.execute(wrapped);
+        running = true;
+    }
+
+    /**
+     * Hands the next waiting task over to the executor. Runs it right
+     * away on the calling worker thread if the executor is saturated.
+     */
+    private void scheduleNext()
+    {
+        Runnable next;
+
+        synchronized (this)
+        {
+            next    = tasks.poll();
+            running = next != null;
+        }
+
+        if (next == null)
+            return;
+
+        try {
+            executor.execute(next);
+        } catch (RejectedExecutionException e) {
+            next.run();
+        }
+    }
+
+    /**
+     * Lets other jobs use the printer again once the session ended.
+     */
+    void release()
+    {
+        if (executor instanceof PrintLane.Holder)
+        {
+            ((PrintLane.Holder) executor).release();
+        }
+    }
+
+    /**
+     * Returns the index of the first element of the next chunk and
+     * reserves the indexes for the chunk.
+     *
+     * @param size The number of elements of the chunk.
+     */
+    synchronized int reserve (int size)
+    {
+        int offset = count;
+
+        count += size;
+
+        return offset;
+    }
+
+    /**
+     * Returns the first error of the session.
+     *
+     * @return null if all chunks have been sent so far.
+     */
+    @Nullable
+    String getError()
+    {
+        return error;
+    }
+
+    /**
+     * Remembers the first error of the session.
+     *
+     * @param message The error.
+     */
+    synchronized void fail (@NonNull String message)
+    {
+        if (error == null)
+        {
+            error = message;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.app.Activity;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.webkit.WebView;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Warms up the parts of the plugin the first print job would otherwise
+ * pay for, and measures how long each phase takes. Depending on the mode
+ * this happens when the plugin gets loaded, once the app became idle or
+ * right before the first job.
+ */
+final class PrintStartup
+{
+    // When to warm up
+    enum Mode { LAZY, EAGER, IDLE }
+
+    // The activity of the app
+    private final @NonNull Activity activity;
+
+    // The configured mode
+    private final @NonNull Mode mode;
+
+    // The time in ms each phase took, in order of execution
+    private final @NonNull Map<String, Long> phases = new LinkedHashMap<>();
+
+    // The time the plugin got initialized at
+    private final long createdAt = SystemClock.elapsedRealtime();
+
+    // The time the warm up finished at, 0 if not yet
+    private volatile long readyAt;
+
+    // If the warm up has been started already
+    private boolean started;
+
+    /**
+     * Constructor
+     *
+     * @param activity The activity of the app.
+     * @param mode     The configured mode.
+     */
+    PrintStartup (@NonNull Activity activity, @NonNull Mode mode)
+    {
+        this.activity = activity;
+        this.mode     = mode;
+    }
+
+    /**
+     * Converts the value of the PrinterInitMode preference.
+     *
+     * @param value One of lazy, eager or idle.
+     *
+     * @return LAZY for unknown values.
+     */
+    @NonNull
+    static Mode parseMode (@NonNull String value)
+    {
+        switch (value.toLowerCase())
+        {
+            case "eager":
+                return Mode.EAGER;
+            case "idle":
+                return Mode.IDLE;
+            default:
+                return Mode.LAZY;
+        }
+    }
+
+    /**
+     * Returns the configured mode.
+     */
+    @NonNull
+    Mode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Warms up on the plugin executor once the main thread has nothing
+     * else to do. Used by the idle mode after the page finished loading.
+     */
+    void warmUpWhenIdle()
+    {
+        activity.runOnUiThread(() -> Looper.myQueue().addIdleHandler(() -> {
+            warmUpAsync(true);
+            return false;
+        }));
+    }
+
+    /**
+     * Warms up on the plugin executor.
+     *
+     * @param webView Also create a web view to load the Chromium engine.
+     */
+    void warmUpAsync (boolean webView)
+    {
+        PrintExecutor.getInstance().execute(() -> warmUp(webView));
+    }
+
+    /**
+     * Warms up on the calling thread. Does nothing if done before.
+     * Must not be called from the main thread.
+     *
+     * @param webView Also create a web view to load the Chromium engine.
+     */
+    void warmUp (boolean webView)
+    {
+        synchronized (this)
+        {
+            if (started) return;
+            started = true;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+
+        measure("classes", () -> {
+            try {
+                ReceiptCompiler.compile("[]");
+            } catch (ReceiptCompiler.InvalidElementException e) {
+                // not possible for an empty receipt
+            }
+
+            PrintManager.getPrintableTypes();
+        });
+
+        measure("io", () -> {
+            File dir = new File(activity.getCacheDir(), "printer");
+            dir.mkdirs();
+            deleteRenderCache();
+        });
+
+        measure("printer", () -> CieloBackend.getSession(activity));
+
+        if (webView)
+        {
+            measure("webview", () -> runOnUiThreadAndWait(() -> new WebView(activity).destroy()));
+        }
+
+        record("total", SystemClock.elapsedRealtime() - start);
+
+        readyAt = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Deletes the PDF files and the render*.tmp leftovers of the HTML
+     * render cache that earlier versions kept.
+     */
+    private void deleteRenderCache()
+    {
+        File dir     = new File(activity.getCacheDir(), "printer-render");
+        File[] files = dir.listFiles();
+
+        if (files == null)
+            return;
+
+        for (File file : files)
+        {
+            file.delete();
+        }
+
+        dir.delete();
+    }
+
+    /**
+     * Returns the mode and the time each phase took in ms.
+     */
+    @NonNull
+    JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+        JSONObject times = new JSONObject();
+        long ready       = readyAt;
+
+        try {
+            synchronized (phases)
+            {
+                for (Map.Entry<String, Long> phase : phases.entrySet())
+                {
+                    times.put(phase.getKey(), phase.getValue());
+                }
+            }
+
+            stats.put("mode", mode.name().toLowerCase());
+            stats.put("ready", ready != 0);
+            stats.put("readyAfter", ready != 0 ? ready - createdAt : -1);
+            stats.put("phases", times);
+        } catch (JSONException e) {
+            // ignore
+        }
+
+        return stats;
+    }
+
+    /**
+     * Runs the phase and records how long it took.
+     *
+     * @param name  The name of the phase.
+     * @param phase The work to do.
+     */
+    private void measure (@NonNull String name, @NonNull Runnable phase)
+    {
+        long start = SystemClock.elapsedRealtime();
+
+        try {
+            phase.run();
+        } catch (RuntimeException e) {
+            // the job will fail with a proper error later on
+        }
+
+        record(name, SystemClock.elapsedRealtime() - start);
+    }
+
+    /**
+     * Records the time of a phase.
+     *
+     * @param name The name of the phase.
+     * @param time The time in ms.
+     */
+    void record (@NonNull String name, long time)
+    {
+        synchronized (phases)
+        {
+            phases.put(name, time);
+        }
+    }
+
+    /**
+     * Runs the task on the main thread and blocks until it is done.
+     *
+     * @param task The task to run.
+     */
+    private void runOnUiThreadAndWait (@NonNull Runnable task)
+    {
+        CountDownLatch done = new CountDownLatch(1);
+
+        activity.runOnUiThread(() -> {
+            try {
+                task.run();
+            } finally {
+                done.countDown();
+            }
+        });
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Identifies a print job by the id the client assigned to it and lets
+ * the client cancel the job. The stages of the job register listeners
+ * that stop their work once the job gets cancelled, like removing the
+ * task from the queue or waking up the dispatcher of the receipt.
+ *
+ * Jobs without an id share the NONE ticket which cannot be cancelled.
+ */
+final class PrintTicket
+{
+    // The ticket of all jobs that cannot be cancelled
+    static final PrintTicket NONE = new PrintTicket(0);
+
+    // The tickets of the running jobs by id
+    private static final Map<Integer, PrintTicket> tickets = new ConcurrentHashMap<>();
+
+    // The ticket of the job running on the current thread
+    private static final ThreadLocal<PrintTicket> current = new ThreadLocal<>();
+
+    // The id the client refers to the job with
+    final int id;
+
+    // The listeners to invoke once the job gets cancelled
+    private final List<Runnable> listeners = new ArrayList<>();
+
+    // If the job got cancelled
+    private volatile boolean cancelled;
+
+    /**
+     * Constructor
+     *
+     * @param id The id of the job.
+     */
+    private PrintTicket (int id)
+    {
+        this.id = id;
+    }
+
+    /**
+     * Issues the ticket for a new job.
+     *
+     * @param id The id the client assigned to the job.
+     *
+     * @return NONE if the job has no id.
+     */
+    @NonNull
+    static PrintTicket issue (int id)
+    {
+        if (id <= 0)
+            return NONE;
+
+        PrintTicket ticket = new PrintTicket(id);
+
+        tickets.put(id, ticket);
+
+        return ticket;
+    }
+
+    /**
+     * Cancels the job with the given id.
+     *
+     * @param id The id the client assigned to the job.
+     *
+     * @return false if no such job is running.
+     */
+    static boolean cancel (int id)
+    {
+        PrintTicket ticket = tickets.get(id);
+
+        if (ticket == null)
+            return false;
+
+        ticket.cancel();
+
+        return true;
+    }
+
+    /**
+     * Returns the ticket of the job running on the current thread.
+     */
+    @NonNull
+    static PrintTicket current()
+    {
+        PrintTicket ticket = current.get();
+
+        return ticket != null ? ticket : NONE;
+    }
+
+    /**
+     * Makes the ticket the current one of the calling thread.
+     */
+    void attach()
+    {
+        if (this != NONE) current.set(this);
+    }
+
+    /**
+     * Clears the current ticket of the calling thread.
+     */
+    void detach()
+    {
+        if (this != NONE) current.remove();
+    }
+
+    /**
+     * If the job got cancelled.
+     */
+    boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Registers the listener to invoke once the job gets cancelled.
+     * Invokes it right away if the job got cancelled already.
+     *
+     * @param listener The listener to invoke.
+     */
+    void onCancel (@NonNull Runnable listener)
+    {
+        if (this == NONE)
+            return;
+
+        synchronized (this)
+        {
+            if (!cancelled)
+            {
+                listeners.add(listener);
+                return;
+            }
+        }
+
+        listener.run();
+    }
+
+    /**
+     * Unregisters the listener once its stage is done.
+     *
+     * @param listener The listener to remove.
+     */
+    void removeOnCancel (@NonNull Runnable listener)
+    {
+        if (this == NONE)
+            return;
+
+        synchronized (this)
+        {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Marks the job as cancelled and invokes the listeners.
+     */
+    void cancel()
+    {
+        List<Runnable> pending;
+
+        synchronized (this)
+        {
+            if (cancelled) return;
+
+            cancelled = true;
+            pending   = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+
+        for (Runnable listener : pending)
+        {
+            listener.run();
+        }
+    }
+
+    /**
+     * Unregisters the ticket once the job is done.
+     */
+    void close()
+    {
+        if (this == NONE)
+            return;
+
+        tickets.remove(id, this);
+
+        synchronized (this)
+        {
+            listeners.clear();
+        }
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.support.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * Records the spans of one print job like parsing, compiling, the dispatch
+ * of each line and its acknowledgement by the printer. Spans started and
+ * ended on the same thread are emitted as android.os.Trace sections too.
+ *
+ * Finished traces are kept in a fixed-size ring buffer to export them as
+ * JSON. While tracing is disabled all jobs share the NONE trace which
+ * methods return right away without allocating anything.
+ */
+final class PrintTrace
+{
+    // The trace used by all jobs while tracing is disabled
+    static final PrintTrace NONE = new PrintTrace("none");
+
+    // Max number of spans recorded per job
+    private static final int MAX_SPANS = 4096;
+
+    // If new jobs get traced
+    private static volatile boolean enabled;
+
+    // The last finished traces
+    private static PrintTrace[] ring = new PrintTrace[16];
+
+    // The slot for the next finished trace
+    private static int next;
+
+    // The trace of the job running on the current thread
+    private static final ThreadLocal<PrintTrace> current = new ThreadLocal<>();
+
+    // The name of the traced job
+    private final @NonNull String name;
+
+    // The wall clock time the job started at
+    private final long startedAt = System.currentTimeMillis();
+
+    // The time the job started at in ns
+    private final long origin = SystemClock.elapsedRealtimeNanos();
+
+    // The names of the spans
+    private String[] names = new String[32];
+
+    // The line or element the span belongs to, -1 if none
+    private int[] args = new int[32];
+
+    // The enclosing span, -1 for top level spans
+    private int[] parents = new int[32];
+
+    // Start and end of the spans in ns relative to the origin
+    private long[] starts = new long[32], ends = new long[32];
+
+    // The number of recorded spans
+    private int size;
+
+    // The number of spans that did not fit
+    private int dropped;
+
+    // The innermost open span
+    private int open = -1;
+
+    // The async spans waiting to be completed in order
+    private int[] pending = new int[16];
+
+    // Head and tail of the pending queue
+    private int pendingHead, pendingTail;
+
+    // The duration of the job in ns, 0 while running
+    private long duration;
+
+    /**
+     * Constructor
+     *
+     * @param name The name of the traced job.
+     */
+    private PrintTrace (@NonNull String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Starts a new trace for the job.
+     *
+     * @param name The name of the job.
+     *
+     * @return NONE if tracing is disabled.
+     */
+    @NonNull
+    static PrintTrace start (@NonNull String name)
+    {
+        return enabled ? new PrintTrace(name) : NONE;
+    }
+
+    /**
+     * Enables or disables tracing of new jobs.
+     *
+     * @param on       If new jobs get traced.
+     * @param capacity The number of traces to keep, 0 keeps the current.
+     */
+    static synchronized void setEnabled (boolean on, int capacity)
+    {
+        if (capacity > 0 && capacity != ring.length)
+        {
+            ring = new PrintTrace[capacity];
+            next = 0;
+        }
+
+        enabled = on;
+    }
+
+    /**
+     * Returns the trace of the job running on the current thread.
+     */
+    @NonNull
+    static PrintTrace current()
+    {
+        if (!enabled) return NONE;
+
+        PrintTrace trace = current.get();
+
+        return trace != null ? trace : NONE;
+    }
+
+    /**
+     * Makes the trace the current one of the calling thread.
+     */
+    void attach()
+    {
+        if (this != NONE) current.set(this);
+    }
+
+    /**
+     * Clears the current trace of the calling thread.
+     */
+    void detach()
+    {
+        if (this != NONE) current.remove();
+    }
+
+    /**
+     * Opens a span that ends on the same thread.
+     *
+     * @param span The name of the span.
+     *
+     * @return The id of the span to pass to end.
+     */
+    int begin (@NonNull String span)
+    {
+        return begin(span, -1);
+    }
+
+    /**
+     * Opens a span that ends on the same thread.
+     *
+     * @param span The name of the span.
+     * @param arg  The line or element the span belongs to.
+     *
+     * @return The id of the span to pass to end.
+     */
+    int begin (@NonNull String span, int arg)
+    {
+        if (this == NONE) return -1;
+
+        Trace.beginSection(arg < 0 ? span : span + " " + arg);
+
+        synchronized (this)
+        {
+            int id = add(span, arg);
+
+            if (id >= 0) open = id;
+
+            return id;
+        }
+    }
+
+    /**
+     * Closes the span opened by begin.
+     *
+     * @param id The id of the span.
+     */
+    void end (int id)
+    {
+        if (this == NONE) return;
+
+        Trace.endSection();
+
+        synchronized (this)
+        {
+            if (id < 0) return;
+
+            ends[id] = now();
+            open     = parents[id];
+        }
+    }
+
+    /**
+     * Opens a span that might end on another thread.
+     *
+     * @param span The name of the span.
+     * @param arg  The line or element the span belongs to.
+     *
+     * @return The id of the span to pass to endAsync.
+     */
+    int beginAsync (@NonNull String span, int arg)
+    {
+        if (this == NONE) return -1;
+
+        synchronized (this)
+        {
+            return add(span, arg);
+        }
+    }
+
+    /**
+     * Closes the span opened by beginAsync.
+     *
+     * @param id The id of the span.
+     */
+    void endAsync (int id)
+    {
+        if (id < 0 || this == NONE) return;
+
+        synchronized (this)
+        {
+            ends[id] = now();
+        }
+    }
+
+    /**
+     * Opens an async span that gets closed by the next call to
+     * completePending, for acknowledgements that arrive in order.
+     *
+     * @param span The name of the span.
+     * @param arg  The line or element the span belongs to.
+     */
+    void beginPending (@NonNull String span, int arg)
+    {
+        if (this == NONE) return;
+
+        synchronized (this)
+        {
+            enqueue(add(span, arg));
+        }
+    }
+
+    /**
+     * Closes the oldest span opened by beginPending.
+     */
+    void completePending()
+    {
+        if (this == NONE) return;
+
+        synchronized (this)
+        {
+            if (pendingHead == pendingTail) return;
+
+            int id = pending[pendingHead++ % pending.length];
+
+            if (id >= 0) ends[id] = now();
+        }
+    }
+
+    /**
+     * Adds the span to the pending queue. Dropped spans are queued too
+     * so that the later ones still match their acknowledgement.
+     *
+     * @param id The id of the span.
+     */
+    private void enqueue (int id)
+    {
+        if (pendingTail - pendingHead == pending.length)
+        {
+            int[] grown = new int[pending.length * 2];
+
+            for (int i = pendingHead; i < pendingTail; i++)
+            {
+                grown[i - pendingHead] = pending[i % pending.length];
+            }
+
+            pending      = grown;
+            pendingTail -= pendingHead;
+            pendingHead  = 0;
+        }
+
+        pending[pendingTail++ % pending.length] = id;
+    }
+
+    /**
+     * Stops the trace and moves it into the ring buffer.
+     * Does nothing if called more than once.
+     */
+    void finish()
+    {
+        if (this == NONE) return;
+
+        synchronized (this)
+        {
+            if (duration != 0) return;
+            duration = Math.max(1, now());
+        }
+
+        synchronized (PrintTrace.class)
+        {
+            ring[next] = this;
+            next       = (next + 1) % ring.length;
+        }
+    }
+
+    /**
+     * Exports the finished traces from the oldest to the newest.
+     *
+     * @param clear Remove the exported traces from the buffer.
+     */
+    @NonNull
+    static synchronized JSONArray export (boolean clear)
+    {
+        JSONArray list = new JSONArray();
+
+        for (int i = 0; i < ring.length; i++)
+        {
+            PrintTrace trace = ring[(next + i) % ring.length];
+
+            if (trace != null)
+            {
+                list.put(trace.toJSON());
+            }
+        }
+
+        if (clear)
+        {
+            Arrays.fill(ring, null);
+            next = 0;
+        }
+
+        return list;
+    }
+
+    /**
+     * Converts the trace into JSON with all times in microseconds.
+     */
+    @NonNull
+    private synchronized JSONObject toJSON()
+    {
+        JSONObject trace = new JSONObject();
+        JSONArray spans  = new JSONArray();
+
+        try {
+            for (int i = 0; i < size; i++)
+            {
+                JSONObject span = new JSONObject();
+                long end        = ends[i] != 0 ? ends[i] : duration;
+
+                span.put("name", names[i]);
+                span.put("parent", parents[i]);
+                span.put("start", starts[i] / 1000);
+                span.put("duration", (end - starts[i]) / 1000);
+
+                if (args[i] >= 0) {
+                    span.put("index", args[i]);
+                }
+
+                spans.put(span);
+            }
+
+            trace.put("name", name);
+            trace.put("start", startedAt);
+            trace.put("duration", duration / 1000);
+            trace.put("dropped", dropped);
+            trace.put("spans", spans);
+        } catch (JSONException e) {
+            // ignore
+        }
+
+        return trace;
+    }
+
+    /**
+     * Appends a span below the innermost open one.
+     *
+     * @param span The name of the span.
+     * @param arg  The line or element the span belongs to.
+     *
+     * @return The id of the span or -1 if the limit is reached.
+     */
+    private int add (@NonNull String span, int arg)
+    {
+        if (size == MAX_SPANS || duration != 0)
+        {
+            dropped++;
+            return -1;
+        }
+
+        if (size == names.length)
+        {
+            int capacity = Math.min(MAX_SPANS, size * 2);
+
+            names   = Arrays.copyOf(names, capacity);
+            args    = Arrays.copyOf(args, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            starts  = Arrays.copyOf(starts, capacity);
+            ends    = Arrays.copyOf(ends, capacity);
+        }
+
+        names[size]   = span;
+        args[size]    = arg;
+        parents[size] = open;
+        starts[size]  = now();
+        ends[size]    = 0;
+
+        return size++;
+    }
+
+    /**
+     * Returns the time in ns since the origin of the trace.
+     */
+    private long now()
+    {
+        return SystemClock.elapsedRealtimeNanos() - origin;
+    }
+}
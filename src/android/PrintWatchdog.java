@@ -0,0 +1,253 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Hashed timer wheel shared by all jobs to detect a printer that stopped
+ * answering. Scheduling and cancelling a timeout is O(1) and takes no
+ * thread or timer of its own, so the deadlines can be re-armed as often
+ * as the printer acknowledges a line.
+ *
+ * The wheel runs on a single daemon thread that ticks every TICK ms while
+ * timeouts are pending and sleeps otherwise. Timeouts fire with a delay
+ * of up to one tick.
+ */
+final class PrintWatchdog
+{
+    // The resolution of the wheel in ms
+    private static final long TICK = 100;
+
+    // The number of slots, a power of two
+    private static final int WHEEL_SIZE = 64;
+
+    // The watchdog shared by all jobs
+    private static volatile PrintWatchdog instance;
+
+    // The timeouts by slot, linked through their next field
+    private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+
+    // The number of ticks since the wheel started
+    private long tick;
+
+    // The time in ms the wheel started at, adjusted after idle phases
+    private long startedAt;
+
+    // The number of scheduled timeouts
+    private int pending;
+
+    // The thread that turns the wheel
+    private @Nullable Thread worker;
+
+    /**
+     * Returns the shared watchdog and creates it on first use.
+     */
+    @NonNull
+    static PrintWatchdog getInstance()
+    {
+        PrintWatchdog watchdog = instance;
+
+        if (watchdog == null)
+        {
+            synchronized (PrintWatchdog.class)
+            {
+                if (instance == null)
+                {
+                    instance = new PrintWatchdog();
+                }
+
+                watchdog = instance;
+            }
+        }
+
+        return watchdog;
+    }
+
+    /**
+     * Constructor
+     */
+    private PrintWatchdog() {}
+
+    /**
+     * Schedules the task to run once the delay passed.
+     *
+     * @param delay The delay in ms.
+     * @param task  The task to run on the watchdog thread.
+     *
+     * @return The handle to cancel the timeout.
+     */
+    @NonNull
+    synchronized Timeout schedule (long delay, @NonNull Runnable task)
+    {
+        if (pending == 0)
+        {
+            startedAt = SystemClock.elapsedRealtime() - tick * TICK;
+        }
+
+        long ticks      = Math.max(1, (delay + TICK - 1) / TICK);
+        Timeout timeout = new Timeout(tick + ticks, task);
+        int slot        = (int) (timeout.deadline & (WHEEL_SIZE - 1));
+
+        timeout.next = wheel[slot];
+        wheel[slot]  = timeout;
+        pending++;
+
+        if (worker == null)
+        {
+            worker = new Thread(this::turn, "printer-watchdog");
+            worker.setDaemon(true);
+            worker.start();
+        }
+        else if (pending == 1)
+        {
+            notifyAll();
+        }
+
+        return timeout;
+    }
+
+    /**
+     * Turns the wheel one slot per tick and runs the expired timeouts.
+     */
+    private void turn()
+    {
+        while (true)
+        {
+            Timeout due;
+
+            try {
+                due = advance();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            for (; due != null; due = due.next)
+            {
+                try {
+                    due.task.run();
+                } catch (RuntimeException e) {
+                    // keep the wheel turning
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the next tick and unlinks the expired timeouts of its
+     * slot. Cancelled timeouts get unlinked on the way.
+     *
+     * @return The expired timeouts linked through their next field.
+     *
+     * @throws InterruptedException If the thread got interrupted.
+     */
+    @Nullable
+    private synchronized Timeout advance() throws InterruptedException
+    {
+        while (pending == 0)
+        {
+            wait();
+        }
+
+        long wake;
+
+        while ((wake = startedAt + (tick + 1) * TICK - SystemClock.elapsedRealtime()) > 0)
+        {
+            wait(wake);
+        }
+
+        tick++;
+
+        int slot        = (int) (tick & (WHEEL_SIZE - 1));
+        Timeout due     = null;
+        Timeout keep    = null;
+        Timeout timeout = wheel[slot];
+
+        while (timeout != null)
+        {
+            Timeout next = timeout.next;
+
+            if (timeout.cancelled)
+            {
+                pending--;
+            }
+            else if (timeout.deadline <= tick)
+            {
+                timeout.next = due;
+                due          = timeout;
+                pending--;
+            }
+            else
+            {
+                timeout.next = keep;
+                keep         = timeout;
+            }
+
+            timeout = next;
+        }
+
+        wheel[slot] = keep;
+
+        return due;
+    }
+
+    /**
+     * A scheduled task.
+     */
+    static final class Timeout
+    {
+        // The tick at which the timeout fires
+        private final long deadline;
+
+        // The task to run
+        private final @NonNull Runnable task;
+
+        // The next timeout of the same slot
+        private @Nullable Timeout next;
+
+        // If the timeout got cancelled
+        private volatile boolean cancelled;
+
+        /**
+         * Constructor
+         *
+         * @param deadline The tick at which the timeout fires.
+         * @param task     The task to run.
+         */
+        private Timeout (long deadline, @NonNull Runnable task)
+        {
+            this.deadline = deadline;
+            this.task     = task;
+        }
+
+        /**
+         * Prevents the task from running. It gets unlinked the next time
+         * the wheel passes its slot.
+         */
+        void cancel()
+        {
+            cancelled = true;
+        }
+    }
+}
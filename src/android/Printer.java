@@ -23,20 +23,28 @@ package de.appplant.cordova.plugin.printer;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.print.PrintHelper;
 import android.webkit.WebView;
+import android.util.Base64;
 import android.util.Log;
 import android.app.AlertDialog;
 import android.app.AlertDialog.Builder;
 import android.app.ProgressDialog;
 import android.content.DialogInterface;
+import android.os.SystemClock;
 
 import android.widget.TextView;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaInterface;
@@ -47,10 +55,6 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONException;
 
-import cielo.printer.client.PrinterAttributes;
-import cielo.sdk.order.PrinterListener;
-import cielo.sdk.printer.PrinterManager;
-
 /**
  * Plugin to print HTML documents. Therefore it creates an invisible web view
  * that loads the markup data. Once the page has been fully rendered it takes
@@ -58,6 +62,62 @@ import cielo.sdk.printer.PrinterManager;
  */
 public final class Printer extends CordovaPlugin
 {
+    // The list of printable document types, encoded once
+    private static final PluginResult TYPES = new PluginResult(
+            Status.OK, PrintManager.getPrintableTypes());
+
+    // If the device is able to print at all
+    private static final boolean SUPPORTS_PRINT = PrintHelper.systemSupportsPrint();
+
+    // Warms up the plugin and measures the cold start
+    private PrintStartup startup;
+
+    // The charset the printer font supports, from the PrinterCharset preference
+    private String charset = "none";
+
+    // The open print sessions by id
+    private final Map<Integer, PrintSession> sessions = new ConcurrentHashMap<>();
+
+    // The id of the last print session
+    private final AtomicInteger lastSessionId = new AtomicInteger();
+
+    /**
+     * Reads the PrinterInitMode preference and warms up right away if
+     * the mode is eager.
+     */
+    @Override
+    protected void pluginInitialize()
+    {
+        long start  = SystemClock.elapsedRealtime();
+        String mode = preferences.getString("PrinterInitMode", "lazy");
+
+        startup = new PrintStartup(cordova.getActivity(), PrintStartup.parseMode(mode));
+        charset = preferences.getString("PrinterCharset", "none");
+        startup.record("plugin", SystemClock.elapsedRealtime() - start);
+
+        if (startup.getMode() == PrintStartup.Mode.EAGER)
+        {
+            startup.warmUpAsync(true);
+        }
+    }
+
+    /**
+     * Warms up once the page has been loaded if the mode is idle.
+     *
+     * @param id   The message id.
+     * @param data The message data.
+     */
+    @Override
+    public Object onMessage (String id, Object data)
+    {
+        if ("onPageFinished".equals(id) && startup.getMode() == PrintStartup.Mode.IDLE)
+        {
+            startup.warmUpWhenIdle();
+        }
+
+        return null;
+    }
+
     /**
      * Executes the request.
      *
@@ -130,7 +190,29 @@ public final class Printer extends CordovaPlugin
     public boolean execute (String action, JSONArray args,
                             CallbackContext callback)
     {
-        boolean valid = true;
+        PrintRecorder.call(action, args);
+
+        return dispatch(action, args, callback);
+    }
+
+    /**
+     * Runs the action. Replayed calls enter here to not get recorded again.
+     *
+     * @param action   The name of the action.
+     * @param args     The arguments of the call.
+     * @param callback The plugin function to invoke with the result.
+     *
+     * @return false if the action is unknown.
+     */
+    private boolean dispatch (@NonNull String action, @NonNull JSONArray args,
+                              @NonNull CallbackContext callback)
+    {
+        PrintTrace trace   = action.startsWith("print") ? PrintTrace.start(action) : PrintTrace.NONE;
+        PrintTicket ticket = PrintTicket.NONE;
+        int span           = trace.beginAsync("receive", -1);
+        boolean valid      = true;
+
+        trace.attach();
 
         if (action.equalsIgnoreCase("check"))
         {
@@ -145,7 +227,22 @@ public final class Printer extends CordovaPlugin
 
             try {
 
-                print(args.optString(0), args.optJSONObject(1), callback);
+                JSONObject settings = args.optJSONObject(1);
+                JSONArray items     = args.optJSONArray(0);
+
+                if (settings == null) {
+                    settings = new JSONObject();
+                }
+
+                ticket = PrintTicket.issue(new PrintOptions(settings).getJobId());
+                ticket.attach();
+
+                if (items != null && isItemList(items)) {
+                    printItems(items, settings, callback);
+                } else {
+                    print(args.optString(0), settings, callback);
+                }
+
                 valid = true;
 
             } catch (Exception e) {
@@ -155,22 +252,123 @@ public final class Printer extends CordovaPlugin
             }
 
         }
+        else if (action.equalsIgnoreCase("stats"))
+        {
+            JSONObject stats = PrintExecutor.getInstance().getStats();
+
+            try {
+                stats.put("printer", PrintLane.getInstance().getStats());
+            } catch (JSONException e) {
+                // ignore
+            }
+
+            callback.success(stats);
+        }
+        else if (action.equalsIgnoreCase("startup"))
+        {
+            callback.success(startup.getStats());
+        }
+        else if (action.equalsIgnoreCase("printBatch"))
+        {
+            JSONObject settings = args.optJSONObject(1);
+
+            if (settings == null) {
+                settings = new JSONObject();
+            }
+
+            ticket = PrintTicket.issue(new PrintOptions(settings).getJobId());
+            ticket.attach();
+
+            printBatch(args.optJSONArray(0) != null ? args.optJSONArray(0) : new JSONArray(),
+                    settings, callback);
+        }
+        else if (action.equalsIgnoreCase("beginPrint"))
+        {
+            JSONObject settings = args.optJSONObject(0);
+
+            if (settings == null) {
+                settings = new JSONObject();
+            }
+
+            ticket = PrintTicket.issue(new PrintOptions(settings).getJobId());
+            ticket.attach();
+
+            beginPrint(settings, callback);
+        }
+        else if (action.equalsIgnoreCase("appendElements"))
+        {
+            JSONArray elements = args.optJSONArray(1);
+
+            appendElements(args.optInt(0), elements != null ? elements : new JSONArray(), callback);
+        }
+        else if (action.equalsIgnoreCase("endPrint"))
+        {
+            endPrint(args.optInt(0), callback);
+        }
+        else if (action.equalsIgnoreCase("preview"))
+        {
+            JSONObject settings = args.optJSONObject(1);
+
+            preview(args.optString(0), settings != null ? settings : new JSONObject(),
+                    args.optInt(2, PrintPreview.DEFAULT_WIDTH), callback);
+        }
+        else if (action.equalsIgnoreCase("cancel"))
+        {
+            sendPluginResult(callback, PrintTicket.cancel(args.optInt(0)));
+        }
+        else if (action.equalsIgnoreCase("getJobs"))
+        {
+            callback.success(PrintHistory.query(args.optLong(0, 0), args.optInt(1, 0)));
+        }
+        else if (action.equalsIgnoreCase("record"))
+        {
+            record(args.optBoolean(0, true), args.optString(1), callback);
+        }
+        else if (action.equalsIgnoreCase("replay"))
+        {
+            replay(args.optString(0), (float) args.optDouble(1, 1), callback);
+        }
+        else if (action.equalsIgnoreCase("trace"))
+        {
+            PrintTrace.setEnabled(args.optBoolean(0, true), args.optInt(1, 0));
+            callback.success();
+        }
+        else if (action.equalsIgnoreCase("getTraces"))
+        {
+            callback.success(PrintTrace.export(args.optBoolean(0, false)));
+        }
         else {
             valid = false;
         }
 
+        trace.endAsync(span);
+        trace.detach();
+        ticket.detach();
+
+        if (!valid)
+        {
+            trace.finish();
+            ticket.close();
+        }
+
         return valid;
     }
 
     /**
      * If the print framework is able to render the referenced file.
      *
-     * @param item     Any kind of URL like file://, file:///, res:// or base64://
+     * @param item     Any kind of URL like file://, file:///, res://, base64:// or content://
      * @param callback The plugin function to invoke with the result.
      */
     private void check (@Nullable String item, CallbackContext callback)
     {
-        cordova.getThreadPool().execute(() -> {
+        if (item == null || item.isEmpty() || item.equals("null"))
+        {
+            sendPluginResult(callback, SUPPORTS_PRINT);
+            return;
+        }
+
+        execute(callback, () -> {
             PrintManager pm   = new PrintManager(cordova.getContext());
             boolean printable = pm.canPrintItem(item);
 
@@ -185,14 +383,7 @@ public final class Printer extends CordovaPlugin
      */
     private void types (CallbackContext callback)
     {
-        cordova.getThreadPool().execute(() -> {
-            JSONArray utis = PrintManager.getPrintableTypes();
-
-            PluginResult res = new PluginResult(
-                    Status.OK, utis);
-
-            callback.sendPluginResult(res);
-        });
+        callback.sendPluginResult(TYPES);
     }
 
     /**
@@ -203,114 +394,872 @@ public final class Printer extends CordovaPlugin
      * @param settings Additional settings how to render the content.
      * @param callback The plugin function to invoke with the result.
      */
-    private void print (@Nullable String content, JSONObject settings, CallbackContext callback) throws Exception
+    private void print (@Nullable String content, @NonNull JSONObject settings,
+                        CallbackContext callback)
     {
+        PrintOptions options = new PrintOptions(settings);
 
-        cordova.getThreadPool().execute(() -> {
-            PrinterManager printerManager = new PrinterManager(cordova.getContext());
+        if (!checkBackend(options, callback))
+            return;
+
+        if (options.getBackend().equals("android") && !isReceipt(content))
+        {
+            printContent(content, settings, callback);
+            return;
+        }
 
-            PrinterListener printerListener = new PrinterListener() {
-                @Override public void onPrintSuccess() {
+        long start = System.currentTimeMillis();
+
+        execute(callback, usesPrinter(options), () -> {
+            PrintTrace trace     = PrintTrace.current();
+            PrintTicket ticket   = PrintTicket.current();
+            PrintBackend backend = createBackend(options, settings);
+            List<ReceiptOp> ops;
+
+            try {
+                ops = ReceiptCompiler.verify(PrintPreview.compile(
+                        content != null ? content : "[]"), cordova.getContext());
+            } catch (Exception e) {
+                trace.finish();
+                ticket.close();
+                PrintHistory.record(ticket.id, start, 0, PrintHistory.ERROR, options.getBackend());
+                callback.error(e.getMessage() != null ? e.getMessage() : e.toString());
+                return;
+            }
+
+            int span = trace.beginAsync("print", -1);
+
+            sendReceipt(backend, optimize(ops, options), error -> {
+                trace.endAsync(span);
+                trace.finish();
+                ticket.close();
+                PrintHistory.record(ticket.id, start, backend.getPrinted(),
+                        PrintHistory.outcome(error, ticket), options.getBackend());
+
+                String output = getOutput(backend);
+
+                if (error != null) {
+                    callback.error(error);
+                } else if (output != null) {
+                    callback.success(output);
+                } else {
                     callback.success();
                 }
+            });
+        });
+    }
 
-                @Override public void onError(@Nullable Throwable e) {
-                    callback.error(e.getMessage());
-                    
-                }
+    /**
+     * Renders thumbnails of the pages the content would print on and
+     * sends them one by one to the client as soon as they are ready.
+     * The last result reports the number of pages.
+     *
+     * @param content  The content or file to preview.
+     * @param settings Additional settings how to render the content.
+     * @param width    The pixel width of the thumbnails.
+     * @param callback The plugin function to invoke with the pages.
+     */
+    private void preview (@Nullable String content, @NonNull JSONObject settings,
+                          int width, CallbackContext callback)
+    {
+        PrintOptions options = new PrintOptions(settings);
 
-                @Override public void onWithoutPaper() {
-                    callback.error("Sem papel");
+        execute(callback, () -> {
+            PrintPreview preview           = new PrintPreview(cordova.getContext(), options, width);
+            PrintPreview.Listener listener = (page, index, count) -> {
+                JSONObject json = new JSONObject();
+
+                try {
+                    json.put("index", index);
+                    json.put("pages", count);
+                    json.put("width", page.width);
+                    json.put("height", page.height);
+                    json.put("data", "data:" + page.mimeType + ";base64,"
+                            + Base64.encodeToString(page.data, Base64.NO_WRAP));
+                } catch (JSONException e) {
+                    // ignore
                 }
+
+                PluginResult result = new PluginResult(Status.OK, json);
+
+                result.setKeepCallback(true);
+                callback.sendPluginResult(result);
             };
 
             try {
-                if(content != null) {
-                    List<ObjJson> listObj = new ArrayList<ObjJson>();
-                    JSONArray jArray = new JSONArray(content);
-                    for(int i = 0 ; i < jArray.length() ; i++){
-                        ObjJson jObj = new ObjJson();
-                        jObj.id = jArray.getJSONObject(i).getString("id");
-                        jObj.valor = jArray.getJSONObject(i).getString("valor");
-                        jObj.tipo = jArray.getJSONObject(i).getString("tipo");
-
-                        jObj.fonteTipo = jArray.getJSONObject(i).getInt("fonteTipo");
-                        jObj.fonteTamanho = jArray.getJSONObject(i).getInt("fonteTamanho");
-                        //jObj.fonteFormatacao = jArray.getJSONObject(i).getString("fonteFormatacao");
-                        jObj.fonteOrientacao = jArray.getJSONObject(i).getString("fonteOrientacao");
-
-                        //jObj.imagemTamanhoX = jArray.getJSONObject(i).getString("imagemTamanhoX");
-                        //jObj.imagemTamanhoY = jArray.getJSONObject(i).getString("imagemTamanhoY");
-                        
-                        jObj.margemEsquesda = jArray.getJSONObject(i).getInt("margemEsquesda");
-                        jObj.margemDireita = jArray.getJSONObject(i).getInt("margemDireita");
-                        jObj.margemSuperior = jArray.getJSONObject(i).getInt("margemSuperior");
-                        jObj.margemInferior = jArray.getJSONObject(i).getInt("margemInferior");
-
-                        jObj.espacamentoEntreLinhas = jArray.getJSONObject(i).getInt("espacamentoEntreLinhas");
-
-                        jObj.pesoColuna = jArray.getJSONObject(i).getInt("pesoColuna");
-
-                        listObj.add(jObj);
-                    }
+                int count;
 
-                    // https://developercielo.github.io/manual/cielo-lio
-                    for(int i = 0 ; i < listObj.size() ; i++){
-                        HashMap<String, Integer> set =  new HashMap<>();
-                        if(listObj.get(i).tipo.equalsIgnoreCase("texto")) {
-                            int key_align = listObj.get(i).fonteOrientacao == null || listObj.get(i).fonteOrientacao.equalsIgnoreCase("VAL_ALIGN_LEFT")
-                                ? PrinterAttributes.VAL_ALIGN_LEFT
-                                : listObj.get(i).fonteOrientacao.equalsIgnoreCase("VAL_ALIGN_RIGHT")
-                                ? PrinterAttributes.VAL_ALIGN_RIGHT
-                                : PrinterAttributes.VAL_ALIGN_CENTER;
-                            set.put(PrinterAttributes.KEY_ALIGN, key_align);
-                            set.put(PrinterAttributes.KEY_TEXT_SIZE, listObj.get(i).fonteTamanho);
-                            // Trabalha com um inteiro de 0 a 8, onde cada um é uma fonte diferente.
-                            //set.put(PrinterAttributes.KEY_TYPE_FACE, listObj.get(i).fonteTipo);
-                            set.put(PrinterAttributes.KEY_MARGIN_LEFT, listObj.get(i).margemEsquesda);
-                            set.put(PrinterAttributes.KEY_MARGIN_RIGHT, listObj.get(i).margemDireita);
-                            set.put(PrinterAttributes.KEY_MARGIN_TOP, listObj.get(i).margemSuperior);
-                            set.put(PrinterAttributes.KEY_MARGIN_BOTTOM, listObj.get(i).margemInferior);
-                            set.put(PrinterAttributes.KEY_LINE_SPACE, listObj.get(i).espacamentoEntreLinhas);
-                            // Varíavel utilizada quando se trbaalho com impressão de múltiplas colunas, 
-                            // para escolher o peso de cada coluna.
-                            // set.put(PrinterAttributes.KEY_WEIGHT, listObj.get(i).pesoColuna);
-                        }
-                        printerManager.printText(listObj.get(i).valor, set, printerListener);
-                    }
+                if (isReceipt(content)) {
+                    List<ReceiptOp> ops = optimize(ReceiptCompiler.verify(
+                            PrintPreview.prepare(content), cordova.getContext()), options);
+                    count               = preview.renderReceipt(content, ops, listener);
+                } else {
+                    count = preview.render(content, listener);
                 }
-            } catch (Exception ex) {
-                ex.printStackTrace();
+
+                JSONObject done = new JSONObject();
+
+                done.put("pages", count);
+                done.put("done", true);
+
+                callback.success(done);
+            } catch (Exception e) {
+                callback.error(e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+        });
+    }
+
+    /**
+     * Prints HTML, plain text or a file through the Android print framework.
+     *
+     * @param content  The content or file to print.
+     * @param settings Additional settings how to render the content.
+     * @param callback The plugin function to invoke with the result.
+     */
+    private void printContent (@Nullable String content, @NonNull JSONObject settings,
+                               CallbackContext callback)
+    {
+        long start = System.currentTimeMillis();
+
+        execute(callback, () -> {
+            PrintManager pm    = new PrintManager(cordova.getActivity());
+            PrintTrace trace   = PrintTrace.current();
+            PrintTicket ticket = PrintTicket.current();
+
+            pm.print(content, settings, (WebView) webView.getView(), completed -> {
+                trace.finish();
+                ticket.close();
+                PrintHistory.record(ticket.id, start, 0,
+                        PrintHistory.outcome(completed, ticket), "android");
+                sendPluginResult(callback, completed);
+            });
+        });
+    }
+
+    /**
+     * Prints a list of file://, res:// or base64:// uris as one job through
+     * the Android print framework.
+     *
+     * @param items    The list of uris to print.
+     * @param settings Additional settings how to render the content.
+     * @param callback The plugin function to invoke with the result.
+     */
+    private void printItems (@NonNull JSONArray items, @NonNull JSONObject settings,
+                             CallbackContext callback)
+    {
+        long start = System.currentTimeMillis();
+
+        execute(callback, () -> {
+            PrintManager pm   = new PrintManager(cordova.getActivity());
+            List<String> list = new ArrayList<>(items.length());
+
+            for (int i = 0; i < items.length(); i++)
+            {
+                list.add(items.optString(i));
+            }
+
+            PrintTrace trace   = PrintTrace.current();
+            PrintTicket ticket = PrintTicket.current();
+
+            try {
+                pm.printItems(list, settings, completed -> {
+                    trace.finish();
+                    ticket.close();
+                    PrintHistory.record(ticket.id, start, 0,
+                            PrintHistory.outcome(completed, ticket), "android");
+                    sendPluginResult(callback, completed);
+                });
+            } catch (IOException e) {
+                trace.finish();
+                ticket.close();
+                PrintHistory.record(ticket.id, start, 0, PrintHistory.ERROR, "android");
+                callback.error(e.getMessage());
             }
-            
         });
     }
 
-    public class ObjJson {
-        String id = "";
-		String valor = "";
-		String tipo = "";
-		
-		// se tipo for fonte usar estes parametros
-		int fonteTipo;
-		int fonteTamanho;
-		//int fonteFormatacao;
-		String fonteOrientacao;
-		
-		// se tipo for imagem usar estes parametros
-		// int imagemTamanhoX;
-		// int imagemTamanhoY;
+    /**
+     * Prints several documents back to back within one printer session.
+     * The documents are printed in strict order and the result contains
+     * the status and timing for each of them.
+     *
+     * @param documents The list of documents to print.
+     * @param settings  Additional settings like stopOnError.
+     * @param callback  The plugin function to invoke with the result.
+     */
+    private void printBatch (@NonNull JSONArray documents, @NonNull JSONObject settings,
+                             CallbackContext callback)
+    {
+        boolean stopOnError  = settings.optBoolean("stopOnError", false);
+        PrintOptions options = new PrintOptions(settings);
+        long batchStart      = System.currentTimeMillis();
+
+        if (!checkBackend(options, callback))
+            return;
+
+        execute(callback, usesPrinter(options), () -> printDocuments(new Batch(documents,
+                createBackend(options, settings), options, stopOnError, batchStart, callback), 0));
+    }
+
+    /**
+     * Prints the documents of the batch one after the other, starting at
+     * the given one. Once the Android print framework is done with a
+     * document, the next ones continue on the plugin executor, so that no
+     * thread of the plugin waits while its dialog is open.
+     *
+     * @param batch The state of the batch.
+     * @param index The position of the document to print next.
+     */
+    private void printDocuments (@NonNull Batch batch, int index)
+    {
+        boolean async = PrintRecorder.unwrap(batch.backend) instanceof FrameworkBackend;
+
+        for (int i = index; i < batch.documents.length(); i++)
+        {
+            long start  = SystemClock.elapsedRealtime();
+            int current = i;
+            List<ReceiptOp> ops;
+
+            if (batch.ticket.isCancelled())
+            {
+                putResult(batch.results, i, "cancelled", null, 0);
+                continue;
+            }
+
+            if (batch.failed && batch.stopOnError)
+            {
+                putResult(batch.results, i, "skipped", null, 0);
+                continue;
+            }
+
+            int span = batch.trace.beginAsync("document", i);
+
+            try {
+                Object doc = batch.documents.get(i);
+
+                ops = ReceiptCompiler.verify(doc instanceof JSONArray
+                        ? ReceiptCompiler.compile((JSONArray) doc)
+                        : ReceiptCompiler.compile(doc.toString()), cordova.getContext());
+            } catch (Exception e) {
+                batch.trace.endAsync(span);
+                batch.done(i, start, e.getMessage() != null ? e.getMessage() : e.toString());
+                continue;
+            }
+
+            sendReceipt(batch.backend, optimize(ops, batch.options), error -> {
+                batch.trace.endAsync(span);
+                batch.done(current, start, error);
+
+                if (async)
+                {
+                    resume(batch, current + 1);
+                }
+            });
+
+            if (async)
+                return;
+        }
+
+        batch.trace.finish();
+        batch.ticket.close();
+        PrintHistory.record(batch.ticket.id, batch.startedAt, batch.backend.getPrinted(),
+                PrintHistory.outcome(!batch.failed, batch.ticket), batch.options.getBackend());
+        batch.callback.sendPluginResult(new PluginResult(Status.OK, batch.results));
+    }
+
+    /**
+     * Continues the batch on the plugin executor after the Android print
+     * framework is done with a document. If the queue is full, the batch
+     * continues on the calling thread instead of dropping the remaining
+     * documents.
+     *
+     * @param batch The state of the batch.
+     * @param index The position of the document to print next.
+     */
+    private void resume (@NonNull Batch batch, int index)
+    {
+        Runnable task = () -> {
+            batch.trace.attach();
+            batch.ticket.attach();
+
+            try {
+                printDocuments(batch, index);
+            } finally {
+                batch.trace.detach();
+                batch.ticket.detach();
+            }
+        };
+
+        try {
+            PrintExecutor.getInstance().execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * Opens a print session for a receipt that gets sent in chunks.
+     *
+     * @param settings Additional settings how to render the content.
+     * @param callback The plugin function to invoke with the session id.
+     */
+    private void beginPrint (@NonNull JSONObject settings, CallbackContext callback)
+    {
+        PrintOptions options = new PrintOptions(settings);
 
-		// definicao de margens
-        int margemEsquesda;
-        int margemDireita;
-        int margemSuperior;
-        int margemInferior;
+        if (!checkBackend(options, callback))
+            return;
 
-        int espacamentoEntreLinhas;
+        Executor executor    = usesPrinter(options)
+                ? PrintLane.getInstance().newHolder()
+                : PrintExecutor.getInstance();
+        PrintSession session = new PrintSession(lastSessionId.incrementAndGet(), options,
+                createBackend(options, settings), PrintTrace.start("session"),
+                PrintTicket.current(), executor);
 
-        int pesoColuna;
-	}
+        sessions.put(session.id, session);
+        PrintRecorder.session(session.id);
+        callback.success(session.id);
+    }
+
+    /**
+     * Compiles the next chunk of the receipt and sends it to the backend
+     * while the previous chunks are still printing. The callback gets
+     * invoked once the chunk has been handed over to the backend, which
+     * is the signal for the client to send the next one.
+     *
+     * @param id       The id of the print session.
+     * @param elements The elements of the chunk.
+     * @param callback The plugin function to invoke with the result.
+     */
+    private void appendElements (int id, @NonNull JSONArray elements,
+                                 CallbackContext callback)
+    {
+        PrintSession session = sessions.get(id);
+
+        if (session == null)
+        {
+            callback.error("Sessão de impressão desconhecida");
+            return;
+        }
+
+        if (session.getError() != null)
+        {
+            callback.error(session.getError());
+            return;
+        }
+
+        submit(session, callback, () -> {
+            String error;
+
+            try {
+                int offset          = session.reserve(elements.length());
+                List<ReceiptOp> ops = ReceiptCompiler.compile(elements, offset);
+                int span;
+
+                ops  = optimize(ReceiptCompiler.verify(ops, cordova.getContext()), session.options);
+                span = session.trace.begin("append", offset);
+
+                try {
+                    error = session.backend.append(ops);
+                } finally {
+                    session.trace.end(span);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = "Interrompido";
+            } catch (Exception e) {
+                error = e.getMessage() != null ? e.getMessage() : e.toString();
+            }
+
+            if (error != null) {
+                session.fail(error);
+                callback.error(error);
+            } else {
+                callback.success();
+            }
+        });
+    }
+
+    /**
+     * Closes the print session and waits until the backend printed all
+     * chunks.
+     *
+     * @param id       The id of the print session.
+     * @param callback The plugin function to invoke with the result.
+     */
+    private void endPrint (int id, CallbackContext callback)
+    {
+        PrintSession session = sessions.remove(id);
+
+        if (session == null)
+        {
+            callback.error("Sessão de impressão desconhecida");
+            return;
+        }
+
+        submit(session, callback, () -> {
+            String failure = session.getError();
+            int span       = session.trace.beginAsync("finish", -1);
+
+            FrameworkBackend.OnPrintDoneCallback done = error -> {
+                session.trace.endAsync(span);
+                session.release();
+                session.trace.finish();
+                session.ticket.close();
+                PrintHistory.record(session.ticket.id, session.startedAt, session.backend.getPrinted(),
+                        PrintHistory.outcome(error, session.ticket), session.options.getBackend());
+
+                String output = getOutput(session.backend);
+
+                if (error != null) {
+                    callback.error(error);
+                } else if (output != null) {
+                    callback.success(output);
+                } else {
+                    callback.success();
+                }
+            };
+
+            if (failure != null) {
+                session.backend.abort();
+                done.onDone(failure);
+            } else {
+                finishReceipt(session.backend, done);
+            }
+        });
+    }
+
+    /**
+     * Runs the task behind the previous tasks of the session on the plugin
+     * executor, or reports an error to the client if too many tasks are
+     * waiting already.
+     *
+     * @param session  The print session the task belongs to.
+     * @param callback The callback to inform if the task got rejected.
+     * @param task     The task to run.
+     */
+    private void submit (@NonNull PrintSession session,
+                         @NonNull CallbackContext callback, @NonNull Runnable task)
+    {
+        try {
+            session.submit(() -> {
+                session.trace.attach();
+                session.ticket.attach();
+
+                try {
+                    startup.warmUp(false);
+                    task.run();
+                } finally {
+                    session.trace.detach();
+                    session.ticket.detach();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            callback.error("Fila de impressão cheia");
+        }
+    }
+
+    /**
+     * Starts or stops the recording of the calls and backend interactions.
+     *
+     * @param enabled  If a new recording starts, else the running one stops.
+     * @param path     The file to record into, relative to the cache dir.
+     * @param callback The plugin function to invoke with the file uri once
+     *                 the recording stopped.
+     */
+    private void record (boolean enabled, @Nullable String path, CallbackContext callback)
+    {
+        if (!enabled)
+        {
+            File file = PrintRecorder.stop();
+
+            if (file != null) {
+                callback.success("file://" + file.getAbsolutePath());
+            } else {
+                callback.success();
+            }
+
+            return;
+        }
+
+        if (path == null || path.isEmpty())
+        {
+            path = "printer/recording-" + System.currentTimeMillis() + ".bin";
+        }
+
+        try {
+            PrintRecorder.start(resolveFile(path));
+            callback.success();
+        } catch (IOException e) {
+            callback.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Replays a recording against the replay backend on a thread of its
+     * own, so that the calls can be issued at their recorded times.
+     *
+     * @param path     The file of the recording, relative to the cache dir.
+     * @param speed    The speed factor, 1 for the original speed, 0 to issue
+     *                 the calls without any delay.
+     * @param callback The plugin function to invoke with the summary.
+     */
+    private void replay (@NonNull String path, float speed, CallbackContext callback)
+    {
+        PrintReplay replay = new PrintReplay(resolveFile(path), this::dispatch);
+
+        Thread thread = new Thread(() -> {
+            try {
+                callback.success(replay.run(speed));
+            } catch (InterruptedException e) {
+                callback.error("Interrompido");
+            } catch (Exception e) {
+                callback.error(e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+        }, "printer-replay");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs the normalization and optimization passes enabled by the options.
+     *
+     * @param ops     The compiled elements of the receipt.
+     * @param options The wrapped print job settings.
+     */
+    @NonNull
+    private List<ReceiptOp> optimize (@NonNull List<ReceiptOp> ops,
+                                      @NonNull PrintOptions options)
+    {
+        TextNormalizer normalizer = TextNormalizer.forCharset(options.getCharset(charset));
+        PrintTrace trace          = PrintTrace.current();
+        int span;
+
+        if (normalizer != null)
+        {
+            span = trace.begin("normalize");
+            ops  = normalizer.normalize(ops);
+            trace.end(span);
+        }
+
+        if (options.isCoalesce())
+        {
+            span = trace.begin("coalesce");
+            ops  = ReceiptOptimizer.coalesce(ops);
+            trace.end(span);
+        }
+
+        return ops;
+    }
+
+    /**
+     * Creates the backend selected by the backend option.
+     *
+     * @param options  The wrapped print job settings.
+     * @param settings The raw print job settings.
+     */
+    @NonNull
+    private PrintBackend createBackend (@NonNull PrintOptions options,
+                                        @NonNull JSONObject settings)
+    {
+        PrintBackend backend;
+
+        switch (options.getBackend())
+        {
+            case "android":
+                backend = new FrameworkBackend(cordova.getActivity(), settings);
+                break;
+            case "file":
+                backend = new FileBackend(resolveFile(settings.optString("file",
+                        "printer/" + options.getJobName() + ".txt")), options.getColumns());
+                break;
+            case "memory":
+                backend = new FileBackend(null, options.getColumns());
+                break;
+            case "replay":
+                backend = PrintReplay.createBackend(options.getColumns());
+                break;
+            case "cielo":
+                backend = new CieloBackend(cordova.getContext(),
+                        options.getWindow(), options.isAdaptiveWindow(),
+                        options.getLineTimeout(), options.getJobTimeout(),
+                        options.isRaster());
+                break;
+            default:
+                throw new IllegalArgumentException("Backend desconhecido: " + options.getBackend());
+        }
+
+        return PrintRecorder.wrap(backend);
+    }
+
+    /**
+     * Resolves the path relative to the cache directory unless it is a
+     * file:/// uri.
+     *
+     * @param path The path to resolve.
+     */
+    @NonNull
+    private File resolveFile (@NonNull String path)
+    {
+        return path.startsWith("file:///")
+                ? new File(path.substring(7))
+                : new File(cordova.getContext().getCacheDir(), path);
+    }
+
+    /**
+     * Prints the receipt on the backend and invokes the callback once the
+     * backend is done. The Android print framework completes on its own,
+     * so that no thread of the plugin waits while its dialog is open.
+     *
+     * @param backend  The backend to print on.
+     * @param ops      The compiled elements of the receipt.
+     * @param callback The function to invoke with the error, null on success.
+     */
+    private static void sendReceipt (@NonNull PrintBackend backend,
+                                     @NonNull List<ReceiptOp> ops,
+                                     @NonNull FrameworkBackend.OnPrintDoneCallback callback)
+    {
+        PrintBackend target = PrintRecorder.unwrap(backend);
+        String error;
+
+        if (target instanceof FrameworkBackend)
+        {
+            ((FrameworkBackend) target).print(ops, callback);
+            return;
+        }
+
+        try {
+            error = backend.print(ops);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = "Interrompido";
+        } catch (Exception e) {
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
+        }
+
+        callback.onDone(error);
+    }
+
+    /**
+     * Completes the receipt sent in chunks and invokes the callback once
+     * the backend is done, like sendReceipt.
+     *
+     * @param backend  The backend the chunks were sent to.
+     * @param callback The function to invoke with the error, null on success.
+     */
+    private static void finishReceipt (@NonNull PrintBackend backend,
+                                       @NonNull FrameworkBackend.OnPrintDoneCallback callback)
+    {
+        PrintBackend target = PrintRecorder.unwrap(backend);
+        String error;
+
+        if (target instanceof FrameworkBackend)
+        {
+            ((FrameworkBackend) target).finish(callback);
+            return;
+        }
+
+        try {
+            error = backend.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = "Interrompido";
+        } catch (Exception e) {
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
+        }
+
+        callback.onDone(error);
+    }
+
+    /**
+     * Returns the text rendered by the file and memory backends.
+     *
+     * @param backend The backend that printed the receipt.
+     *
+     * @return null for other backends.
+     */
+    @Nullable
+    private static String getOutput (@Nullable PrintBackend backend)
+    {
+        PrintBackend target = backend != null ? PrintRecorder.unwrap(backend) : null;
+
+        return target instanceof FileBackend ? ((FileBackend) target).getOutput() : null;
+    }
+
+    /**
+     * If the list contains uris only, which are to be printed as one job.
+     *
+     * @param items The list to check.
+     */
+    private static boolean isItemList (@NonNull JSONArray items)
+    {
+        for (int i = 0; i < items.length(); i++)
+        {
+            if (!(items.opt(i) instanceof String))
+                return false;
+        }
+
+        return items.length() > 0;
+    }
+
+    /**
+     * If the content is a receipt given as JSON encoded list of elements.
+     *
+     * @param content The content to check.
+     */
+    private static boolean isReceipt (@Nullable String content)
+    {
+        return content != null && content.trim().startsWith("[");
+    }
+
+    /**
+     * Adds the result entry of a batch document.
+     *
+     * @param results  The entries of the batch.
+     * @param index    The position of the document within the batch.
+     * @param status   One of ok, error, skipped or cancelled.
+     * @param error    The error message if any.
+     * @param duration The time it took to print the document in ms.
+     */
+    private static void putResult (@NonNull JSONArray results, int index,
+                                   @NonNull String status, @Nullable String error,
+                                   long duration)
+    {
+        JSONObject result = new JSONObject();
+
+        results.put(result);
+
+        try {
+            result.put("index", index);
+            result.put("status", status);
+            result.put("duration", duration);
+
+            if (error != null) {
+                result.put("error", error);
+            }
+        } catch (JSONException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Runs the task on the plugin executor.
+     *
+     * @param callback The callback to inform if the task got rejected.
+     * @param task     The task to run.
+     */
+    private void execute (@NonNull CallbackContext callback, @NonNull Runnable task)
+    {
+        execute(callback, false, task);
+    }
+
+    /**
+     * Runs the task on the plugin executor or on the lane of the printer,
+     * or reports an error to the client if too many tasks are waiting
+     * already. In lazy mode the first task pays for the warm up. If the
+     * job gets cancelled while waiting, the task is removed from the queue
+     * right away.
+     *
+     * @param callback The callback to inform if the task got rejected.
+     * @param printer  If the task prints on the Cielo printer.
+     * @param task     The task to run.
+     */
+    private void execute (@NonNull CallbackContext callback, boolean printer,
+                          @NonNull Runnable task)
+    {
+        Executor executor  = printer ? PrintLane.getInstance() : PrintExecutor.getInstance();
+        PrintTrace trace   = PrintTrace.current();
+        PrintTicket ticket = PrintTicket.current();
+        int queued         = trace.beginAsync("queue", -1);
+
+        Runnable job = () -> {
+            trace.endAsync(queued);
+
+            if (ticket.isCancelled())
+            {
+                trace.finish();
+                ticket.close();
+                callback.error("Impressão cancelada");
+                return;
+            }
+
+            trace.attach();
+            ticket.attach();
+
+            try {
+                startup.warmUp(false);
+                task.run();
+            } finally {
+                trace.detach();
+                ticket.detach();
+            }
+        };
+
+        ticket.onCancel(() -> {
+            boolean removed = printer
+                    ? PrintLane.getInstance().remove(job)
+                    : PrintExecutor.getInstance().remove(job);
+
+            if (removed)
+            {
+                trace.endAsync(queued);
+                trace.finish();
+                ticket.close();
+                callback.error("Impressão cancelada");
+            }
+        });
+
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            trace.finish();
+            ticket.close();
+            callback.error("Fila de impressão cheia");
+        }
+    }
+
+    /**
+     * Reports an error to the client unless the backend option names one
+     * of the supported backends, so that a misspelled name cannot end up
+     * on the Cielo printer without running on its lane.
+     *
+     * @param options  The options of the job.
+     * @param callback The plugin function to invoke with the error.
+     *
+     * @return false if the backend is unknown.
+     */
+    private static boolean checkBackend (@NonNull PrintOptions options,
+                                         @NonNull CallbackContext callback)
+    {
+        switch (options.getBackend())
+        {
+            case "cielo":
+            case "android":
+            case "file":
+            case "memory":
+            case "replay":
+                return true;
+        }
+
+        PrintTrace.current().finish();
+        PrintTicket.current().close();
+        callback.error("Backend desconhecido: " + options.getBackend());
+
+        return false;
+    }
+
+    /**
+     * If the jobs with these options print on the Cielo printer and have
+     * to run on its lane.
+     *
+     * @param options The options of the job.
+     */
+    private static boolean usesPrinter (@NonNull PrintOptions options)
+    {
+        return options.getBackend().equals("cielo");
+    }
 
     /**
      * Sends the result back to the client.
@@ -325,4 +1274,78 @@ public final class Printer extends CordovaPlugin
 
         callback.sendPluginResult(result);
     }
+
+    /**
+     * The state of a batch, which continues on another thread after each
+     * document printed through the Android print framework.
+     */
+    private static final class Batch
+    {
+        // The documents to print
+        final @NonNull JSONArray documents;
+
+        // The backend the documents are printed on
+        final @NonNull PrintBackend backend;
+
+        // The wrapped settings of the batch
+        final @NonNull PrintOptions options;
+
+        // If the documents after a failed one get skipped
+        final boolean stopOnError;
+
+        // The wall clock time the batch started at
+        final long startedAt;
+
+        // The plugin function to invoke with the results
+        final @NonNull CallbackContext callback;
+
+        // The trace of the batch
+        final @NonNull PrintTrace trace = PrintTrace.current();
+
+        // The ticket to cancel the batch with
+        final @NonNull PrintTicket ticket = PrintTicket.current();
+
+        // The status and timing of the documents handled so far
+        final @NonNull JSONArray results = new JSONArray();
+
+        // If a document failed
+        boolean failed;
+
+        /**
+         * Constructor
+         *
+         * @param documents   The documents to print.
+         * @param backend     The backend to print on.
+         * @param options     The wrapped settings of the batch.
+         * @param stopOnError If to skip the documents after a failed one.
+         * @param startedAt   The wall clock time the batch started at.
+         * @param callback    The plugin function to invoke with the results.
+         */
+        Batch (@NonNull JSONArray documents, @NonNull PrintBackend backend,
+               @NonNull PrintOptions options, boolean stopOnError, long startedAt,
+               @NonNull CallbackContext callback)
+        {
+            this.documents   = documents;
+            this.backend     = backend;
+            this.options     = options;
+            this.stopOnError = stopOnError;
+            this.startedAt   = startedAt;
+            this.callback    = callback;
+        }
+
+        /**
+         * Adds the result of a printed document.
+         *
+         * @param index The position of the document.
+         * @param start The elapsed realtime in ms the document started at.
+         * @param error The error if the document failed, null on success.
+         */
+        void done (int index, long start, @Nullable String error)
+        {
+            failed |= error != null;
+
+            putResult(results, index, error == null ? "ok" : "error", error,
+                    SystemClock.elapsedRealtime() - start);
+        }
+    }
 }
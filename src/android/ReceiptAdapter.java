@@ -0,0 +1,224 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.pdf.PdfDocument;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.print.PageRange;
+import android.print.PrintAttributes;
+import android.print.PrintDocumentAdapter;
+import android.print.PrintDocumentInfo;
+import android.print.pdf.PrintedPdfDocument;
+import android.support.annotation.NonNull;
+import android.support.v4.print.PrintHelper;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.print.PrintDocumentInfo.CONTENT_TYPE_DOCUMENT;
+
+/**
+ * Document adapter to print content drawn by the receipt renderer.
+ */
+class ReceiptAdapter extends PrintDocumentAdapter
+{
+    // The application context
+    private final @NonNull Context context;
+
+    // The name of the print job
+    private final @NonNull String jobName;
+
+    // Knows how to draw the content
+    private final @NonNull ReceiptRenderer renderer;
+
+    // The callback to inform once the job is done
+    private final @NonNull PrintHelper.OnPrintFinishCallback callback;
+
+    // The attributes of the last layout
+    private PrintAttributes attributes;
+
+    // The page count of the last layout
+    private int pageCount;
+
+    /**
+     * Constructor
+     *
+     * @param context  The application context.
+     * @param jobName  The name of the print job.
+     * @param renderer Knows how to draw the content.
+     * @param callback The callback to inform once the job is done.
+     */
+    ReceiptAdapter (@NonNull Context context, @NonNull String jobName,
+                    @NonNull ReceiptRenderer renderer,
+                    @NonNull PrintHelper.OnPrintFinishCallback callback)
+    {
+        this.context  = context;
+        this.jobName  = jobName;
+        this.renderer = renderer;
+        this.callback = callback;
+    }
+
+    @Override
+    public void onLayout (PrintAttributes oldAttributes,
+                          PrintAttributes newAttributes,
+                          CancellationSignal cancellationSignal,
+                          LayoutResultCallback callback,
+                          Bundle bundle)
+    {
+        if (cancellationSignal.isCanceled())
+        {
+            callback.onLayoutCancelled();
+            return;
+        }
+
+        Rect content    = getContentRect(newAttributes);
+        boolean changed = !newAttributes.equals(attributes);
+
+        if (changed)
+        {
+            attributes = newAttributes;
+            pageCount  = renderer.layout(content.width(), content.height());
+        }
+
+        PrintDocumentInfo pdi = new PrintDocumentInfo.Builder(jobName)
+                .setContentType(CONTENT_TYPE_DOCUMENT)
+                .setPageCount(pageCount)
+                .build();
+
+        callback.onLayoutFinished(pdi, changed);
+    }
+
+    @Override
+    public void onWrite (PageRange[] range,
+                         ParcelFileDescriptor dest,
+                         CancellationSignal cancellationSignal,
+                         WriteResultCallback callback)
+    {
+        PrintedPdfDocument pdf  = new PrintedPdfDocument(context, attributes);
+        List<PageRange> written = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < pageCount; i++)
+            {
+                if (cancellationSignal.isCanceled())
+                {
+                    callback.onWriteCancelled();
+                    return;
+                }
+
+                if (!contains(range, i))
+                    continue;
+
+                PdfDocument.Page page = pdf.startPage(i);
+                Canvas canvas         = page.getCanvas();
+                Rect content          = page.getInfo().getContentRect();
+
+                canvas.translate(content.left, content.top);
+                renderer.draw(i, canvas);
+                pdf.finishPage(page);
+
+                written.add(new PageRange(i, i));
+            }
+
+            FileOutputStream output = new FileOutputStream(dest.getFileDescriptor());
+
+            pdf.writeTo(output);
+            PrintIO.close(output);
+        } catch (IOException e) {
+            callback.onWriteFailed(e.getMessage());
+            return;
+        } finally {
+            pdf.close();
+        }
+
+        callback.onWriteFinished(written.toArray(new PageRange[0]));
+    }
+
+    /**
+     * Releases the rendered content and invokes the callback.
+     */
+    @Override
+    public void onFinish ()
+    {
+        super.onFinish();
+
+        renderer.recycle();
+
+        callback.onFinish();
+    }
+
+    /**
+     * Returns the content area of the page in points.
+     *
+     * @param attrs The print attributes of the job.
+     */
+    @NonNull
+    static Rect getContentRect (@NonNull PrintAttributes attrs)
+    {
+        PrintAttributes.MediaSize size  = attrs.getMediaSize();
+        PrintAttributes.Margins margins = attrs.getMinMargins();
+        int width                       = toPoints(size != null ? size.getWidthMils() : 8270);
+        int height                      = toPoints(size != null ? size.getHeightMils() : 11690);
+
+        if (margins == null)
+            return new Rect(0, 0, width, height);
+
+        return new Rect(toPoints(margins.getLeftMils()), toPoints(margins.getTopMils()),
+                width - toPoints(margins.getRightMils()),
+                height - toPoints(margins.getBottomMils()));
+    }
+
+    /**
+     * Converts thousandths of an inch into points.
+     *
+     * @param mils The length in mils.
+     */
+    private static int toPoints (int mils)
+    {
+        return mils * 72 / 1000;
+    }
+
+    /**
+     * If the page is part of any of the ranges.
+     *
+     * @param ranges The requested page ranges.
+     * @param page   The page index.
+     */
+    static boolean contains (@NonNull PageRange[] ranges, int page)
+    {
+        for (PageRange range : ranges)
+        {
+            if (range.equals(PageRange.ALL_PAGES) ||
+                    (page >= range.getStart() && page <= range.getEnd()))
+                return true;
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.content.Context;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import cielo.printer.client.PrinterAttributes;
+
+import static de.appplant.cordova.plugin.printer.PrintContent.ContentType.IMAGE;
+
+/**
+ * Validates the elements of a receipt and compiles them into an immutable
+ * list of ops. Nothing reaches the printer unless the whole document is
+ * valid.
+ */
+final class ReceiptCompiler
+{
+    // Font size used if the element does not specify one
+    static final int DEFAULT_TEXT_SIZE = 20;
+
+    /**
+     * Raised if an element does not match the schema.
+     */
+    static final class InvalidElementException extends Exception
+    {
+        // The position of the invalid element or -1 for the document
+        final int index;
+
+        /**
+         * Constructor
+         *
+         * @param index   The position of the invalid element.
+         * @param message What is wrong with it.
+         */
+        InvalidElementException (int index, @NonNull String message)
+        {
+            super(index < 0 ? message : "Elemento " + index + ": " + message);
+            this.index = index;
+        }
+    }
+
+    private ReceiptCompiler() {}
+
+    /**
+     * Compiles the receipt given as a JSON encoded string.
+     *
+     * @param content The JSON encoded list of elements.
+     *
+     * @return The immutable list of ops.
+     *
+     * @throws InvalidElementException If any element is invalid.
+     */
+    @NonNull
+    static List<ReceiptOp> compile (@NonNull String content)
+            throws InvalidElementException
+    {
+        PrintTrace trace = PrintTrace.current();
+        int span         = trace.begin("parse");
+        JSONArray elements;
+
+        try {
+            elements = new JSONArray(content);
+        } catch (JSONException e) {
+            throw new InvalidElementException(-1, "JSON inválido: " + e.getMessage());
+        } finally {
+            trace.end(span);
+        }
+
+        return compile(elements);
+    }
+
+    /**
+     * Compiles the list of receipt elements.
+     *
+     * @param elements The elements of the receipt.
+     *
+     * @return The immutable list of ops.
+     *
+     * @throws InvalidElementException If any element is invalid.
+     */
+    @NonNull
+    static List<ReceiptOp> compile (@NonNull JSONArray elements)
+            throws InvalidElementException
+    {
+        return compile(elements, 0);
+    }
+
+    /**
+     * Compiles a chunk of a receipt that arrives in several parts.
+     *
+     * @param elements The elements of the chunk.
+     * @param offset   The index of the first element within the receipt.
+     *
+     * @return The immutable list of ops.
+     *
+     * @throws InvalidElementException If any element is invalid.
+     */
+    @NonNull
+    static List<ReceiptOp> compile (@NonNull JSONArray elements, int offset)
+            throws InvalidElementException
+    {
+        List<ReceiptOp> ops = new ArrayList<>(elements.length());
+        PrintTrace trace    = PrintTrace.current();
+        int span            = trace.begin("compile");
+
+        try {
+            for (int i = 0; i < elements.length(); i++)
+            {
+                JSONObject element = elements.optJSONObject(i);
+
+                if (element == null)
+                    throw new InvalidElementException(offset + i, "não é um objeto");
+
+                ops.add(compile(offset + i, element));
+            }
+        } finally {
+            trace.end(span);
+        }
+
+        return Collections.unmodifiableList(ops);
+    }
+
+    /**
+     * Resolves the images of the compiled receipt and decodes their bounds,
+     * so that an unreadable image fails the job before its first line
+     * reaches the printer. Local files and resources reuse the check done
+     * by canPrintItem.
+     *
+     * @param ops     The compiled elements of the receipt.
+     * @param context The context where to look for resources.
+     *
+     * @return The same list of ops.
+     *
+     * @throws InvalidElementException If any image cannot be decoded.
+     */
+    @NonNull
+    static List<ReceiptOp> verify (@NonNull List<ReceiptOp> ops,
+                                   @NonNull Context context)
+            throws InvalidElementException
+    {
+        PrintTrace trace = PrintTrace.current();
+        int span         = trace.begin("verify");
+
+        try {
+            for (ReceiptOp op : ops)
+            {
+                if (op.kind == ReceiptOp.Kind.IMAGE && !isImage(op.value, context))
+                    throw new InvalidElementException(op.index, "imagem inválida");
+            }
+        } finally {
+            trace.end(span);
+        }
+
+        return ops;
+    }
+
+    /**
+     * If the uri references an image with known dimensions.
+     *
+     * @param path    The uri of the image.
+     * @param context The context where to look for resources.
+     */
+    private static boolean isImage (@NonNull String path, @NonNull Context context)
+    {
+        ContentCheck.Result result = ContentCheck.check(path, context);
+
+        if (result.type != IMAGE)
+            return false;
+
+        if (result.hasBounds())
+            return true;
+
+        BufferedInputStream stream = PrintContent.open(path, context);
+
+        if (stream == null)
+            return false;
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+
+        bounds.inJustDecodeBounds = true;
+
+        try {
+            BitmapFactory.decodeStream(stream, null, bounds);
+        } finally {
+            PrintIO.close(stream);
+        }
+
+        return bounds.outWidth > 0 && bounds.outHeight > 0;
+    }
+
+    /**
+     * Validates and normalizes a single element.
+     *
+     * @param index   The position of the element.
+     * @param element The element to compile.
+     *
+     * @throws InvalidElementException If the element is invalid.
+     */
+    @NonNull
+    private static ReceiptOp compile (int index, @NonNull JSONObject element)
+            throws InvalidElementException
+    {
+        String tipo  = getString(index, element, "tipo");
+        String valor = getString(index, element, "valor");
+        ReceiptOp.Kind kind;
+
+        if (tipo.equalsIgnoreCase("imagem"))
+        {
+            kind = ReceiptOp.Kind.IMAGE;
+
+            if (!valor.matches("^[a-z0-9]+://.+"))
+                throw new InvalidElementException(index, "imagem deve ser uma uri");
+        }
+        else
+        {
+            // Unknown types get printed as text like before
+            kind = ReceiptOp.Kind.TEXT;
+        }
+
+        int textSize = getInt(index, element, "fonteTamanho", DEFAULT_TEXT_SIZE);
+
+        if (textSize <= 0)
+            throw new InvalidElementException(index, "fonteTamanho deve ser positivo");
+
+        return new ReceiptOp(index, kind, valor,
+                getAlign(element.optString("fonteOrientacao", null)),
+                textSize,
+                getInt(index, element, "margemEsquesda", 0),
+                getInt(index, element, "margemDireita", 0),
+                getInt(index, element, "margemSuperior", 0),
+                getInt(index, element, "margemInferior", 0),
+                getInt(index, element, "espacamentoEntreLinhas", 0));
+    }
+
+    /**
+     * Returns the required string field.
+     *
+     * @param index   The position of the element.
+     * @param element The element to read from.
+     * @param key     The name of the field.
+     *
+     * @throws InvalidElementException If the field is missing.
+     */
+    @NonNull
+    private static String getString (int index, @NonNull JSONObject element,
+                                     @NonNull String key)
+            throws InvalidElementException
+    {
+        Object value = element.opt(key);
+
+        if (value == null || value == JSONObject.NULL)
+            throw new InvalidElementException(index, "campo '" + key + "' ausente");
+
+        return value.toString();
+    }
+
+    /**
+     * Returns the optional non-negative integer field.
+     *
+     * @param index    The position of the element.
+     * @param element  The element to read from.
+     * @param key      The name of the field.
+     * @param fallback The value to use if the field is missing.
+     *
+     * @throws InvalidElementException If the field is not a valid number.
+     */
+    private static int getInt (int index, @NonNull JSONObject element,
+                               @NonNull String key, int fallback)
+            throws InvalidElementException
+    {
+        Object value = element.opt(key);
+        int number;
+
+        if (value == null || value == JSONObject.NULL)
+            return fallback;
+
+        if (value instanceof Number)
+        {
+            number = ((Number) value).intValue();
+        }
+        else
+        {
+            try {
+                number = Integer.parseInt(value.toString().trim());
+            } catch (NumberFormatException e) {
+                throw new InvalidElementException(index, "campo '" + key + "' não é numérico");
+            }
+        }
+
+        if (number < 0)
+            throw new InvalidElementException(index, "campo '" + key + "' negativo");
+
+        return number;
+    }
+
+    /**
+     * Converts the alignment name into the SDK constant. Unknown names
+     * center the text like before.
+     *
+     * @param name Like VAL_ALIGN_LEFT, VAL_ALIGN_RIGHT or VAL_ALIGN_CENTER.
+     */
+    private static int getAlign (@Nullable String name)
+    {
+        if (name == null || name.isEmpty())
+            return PrinterAttributes.VAL_ALIGN_LEFT;
+
+        switch (name.toUpperCase())
+        {
+            case "VAL_ALIGN_LEFT":
+            case "LEFT":
+                return PrinterAttributes.VAL_ALIGN_LEFT;
+            case "VAL_ALIGN_RIGHT":
+            case "RIGHT":
+                return PrinterAttributes.VAL_ALIGN_RIGHT;
+            default:
+                return PrinterAttributes.VAL_ALIGN_CENTER;
+        }
+    }
+}
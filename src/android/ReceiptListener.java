@@ -0,0 +1,379 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import cielo.sdk.order.PrinterListener;
+
+/**
+ * Collects the acknowledgements of the SDK printer for the elements of
+ * one document and limits how many elements may be in flight at once.
+ *
+ * The printer acknowledges the elements in the order they were sent, so
+ * the oldest element in flight is the one an error belongs to. If enabled
+ * the window adapts to the measured latency: it grows by one element per
+ * round trip while the acks come back as fast as the best seen so far and
+ * gets halved once they take twice as long.
+ *
+ * A watchdog fails the receipt once the printer did not acknowledge any
+ * element for the line timeout. It gets armed once per window instead of
+ * once per element and re-armed lazily for the remaining time.
+ */
+class ReceiptListener implements PrinterListener
+{
+    // The ack latency in ns below that latencies count as equal
+    private static final long LATENCY_SLACK = 2_000_000;
+
+    // The max number of elements in flight
+    private final int maxWindow;
+
+    // If the window adapts to the latency
+    private final boolean adaptive;
+
+    // The max time in ms the printer may take to acknowledge an element
+    private final long lineTimeout;
+
+    // The index, count and send time of the elements in flight
+    private final int[] indexes, counts;
+    private final long[] sentAt;
+
+    // The number of source elements done once the element gets acked
+    private final int[] completes;
+
+    // The number of source elements the printer acknowledged
+    private int printed;
+
+    // Head and tail of the elements in flight
+    private int head, tail;
+
+    // The current number of elements allowed in flight
+    private int window;
+
+    // The acks received since the window changed
+    private int acked;
+
+    // The lowest and the smoothed ack latency in ns
+    private long bestLatency = Long.MAX_VALUE, avgLatency;
+
+    // The time in ns of the last ack, or the send time if none was in flight
+    private long progressAt;
+
+    // The armed line timeout, null if none
+    private @Nullable PrintWatchdog.Timeout watch;
+
+    // If the printer stopped answering
+    private boolean timedOut;
+
+    // The index of the element that failed, -1 if none
+    private int failedIndex = -1;
+
+    // The first error reported by the printer
+    private volatile @Nullable String error;
+
+    // The trace of the job the elements belong to
+    private final PrintTrace trace = PrintTrace.current();
+
+    /**
+     * Constructor
+     *
+     * @param maxWindow   The max number of elements in flight.
+     * @param adaptive    If the window adapts to the ack latency.
+     * @param lineTimeout The max time in ms to wait for an ack, 0 to
+     *                    wait forever.
+     */
+    ReceiptListener (int maxWindow, boolean adaptive, long lineTimeout)
+    {
+        this.maxWindow   = Math.max(1, maxWindow);
+        this.adaptive    = adaptive;
+        this.lineTimeout = lineTimeout;
+        this.window      = adaptive ? Math.min(2, this.maxWindow) : this.maxWindow;
+        this.indexes     = new int[this.maxWindow];
+        this.counts      = new int[this.maxWindow];
+        this.sentAt      = new long[this.maxWindow];
+        this.completes   = new int[this.maxWindow];
+    }
+
+    @Override
+    public void onPrintSuccess()
+    {
+        trace.completePending();
+
+        synchronized (this)
+        {
+            if (head == tail) return;
+
+            progressAt   = System.nanoTime();
+            long latency = progressAt - sentAt[head % maxWindow];
+
+            printed += completes[head % maxWindow];
+            head++;
+
+            if (adaptive)
+            {
+                adapt(latency);
+            }
+
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void onError (@Nullable Throwable e)
+    {
+        fail(e != null && e.getMessage() != null ? e.getMessage() : "Erro na impressora");
+    }
+
+    @Override
+    public void onWithoutPaper()
+    {
+        fail("Sem papel");
+    }
+
+    /**
+     * Blocks until there is room for another element in the window.
+     *
+     * @return false if the printer reported an error meanwhile.
+     *
+     * @throws InterruptedException If the thread got interrupted.
+     */
+    synchronized boolean acquire() throws InterruptedException
+    {
+        while (error == null && tail - head >= window)
+        {
+            wait();
+        }
+
+        return error == null;
+    }
+
+    /**
+     * Records that the element has been sent to the printer. Has to be
+     * called right before the element gets passed to the SDK.
+     *
+     * @param index The position of the element within the receipt.
+     * @param count The number of source elements merged into it.
+     */
+    void sent (int index, int count)
+    {
+        sent(index, count, count);
+    }
+
+    /**
+     * Records that a part of the elements has been sent to the printer,
+     * like a strip of a raster receipt.
+     *
+     * @param index The position of the first element within the receipt.
+     * @param count The number of source elements the part belongs to.
+     * @param done  The number of source elements done once the part got
+     *              acknowledged.
+     */
+    synchronized void sent (int index, int count, int done)
+    {
+        long now = System.nanoTime();
+
+        if (head == tail)
+        {
+            progressAt = now;
+        }
+
+        indexes[tail % maxWindow]   = index;
+        counts[tail % maxWindow]    = count;
+        sentAt[tail % maxWindow]    = now;
+        completes[tail % maxWindow] = done;
+        tail++;
+
+        if (watch == null && lineTimeout > 0)
+        {
+            watch = PrintWatchdog.getInstance().schedule(lineTimeout, this::check);
+        }
+    }
+
+    /**
+     * Blocks until the printer did acknowledge all elements in flight or
+     * reported an error.
+     *
+     * @return null on success or the error with the failed element.
+     *
+     * @throws InterruptedException If the thread got interrupted.
+     */
+    @Nullable
+    synchronized String await() throws InterruptedException
+    {
+        while (error == null && head != tail)
+        {
+            wait();
+        }
+
+        return error;
+    }
+
+    /**
+     * Stops the receipt once the job got cancelled. Wakes up the waiting
+     * thread so that no further elements get sent.
+     */
+    synchronized void cancel()
+    {
+        if (error != null)
+            return;
+
+        error = "Impressão cancelada";
+        notifyAll();
+    }
+
+    /**
+     * Fails the receipt because it took longer than allowed.
+     *
+     * @param message The status to report.
+     */
+    synchronized void expire (@NonNull String message)
+    {
+        if (error != null)
+            return;
+
+        timedOut = true;
+        fail(message);
+    }
+
+    /**
+     * If the receipt failed because the printer stopped answering.
+     */
+    synchronized boolean isTimedOut()
+    {
+        return timedOut;
+    }
+
+    /**
+     * Returns the error reported by the printer so far without waiting.
+     *
+     * @return null if no element failed yet.
+     */
+    @Nullable
+    String getError()
+    {
+        return error;
+    }
+
+    /**
+     * Returns the index of the element the printer failed to print.
+     * For merged elements it is the first one of the run.
+     *
+     * @return -1 if no element failed.
+     */
+    synchronized int getFailedIndex()
+    {
+        return failedIndex;
+    }
+
+    /**
+     * Returns the number of source elements the printer acknowledged.
+     */
+    synchronized int getPrinted()
+    {
+        return printed;
+    }
+
+    /**
+     * Returns the current number of elements allowed in flight.
+     */
+    synchronized int getWindow()
+    {
+        return window;
+    }
+
+    /**
+     * Invoked by the watchdog once the line timeout passed. Fails the
+     * receipt if the printer did not make any progress meanwhile, else
+     * re-arms the watchdog for the remaining time.
+     */
+    private synchronized void check()
+    {
+        watch = null;
+
+        if (error != null || head == tail)
+            return;
+
+        long idle = (System.nanoTime() - progressAt) / 1_000_000;
+
+        if (idle >= lineTimeout)
+        {
+            expire("Impressora não respondeu");
+        }
+        else
+        {
+            watch = PrintWatchdog.getInstance().schedule(lineTimeout - idle, this::check);
+        }
+    }
+
+    /**
+     * Adapts the window to the latency of the last ack.
+     *
+     * @param latency The time between send and ack in ns.
+     */
+    private void adapt (long latency)
+    {
+        bestLatency = Math.min(bestLatency, latency);
+        avgLatency  = avgLatency == 0 ? latency : (avgLatency * 7 + latency) / 8;
+
+        if (avgLatency > 2 * bestLatency + LATENCY_SLACK)
+        {
+            if (window > 1)
+            {
+                window     = Math.max(1, window / 2);
+                avgLatency = bestLatency;
+                acked      = 0;
+            }
+        }
+        else if (++acked >= window && window < maxWindow
+                && avgLatency <= bestLatency + bestLatency / 2 + LATENCY_SLACK)
+        {
+            window++;
+            acked = 0;
+        }
+    }
+
+    /**
+     * Remembers the error for the oldest element in flight and wakes up
+     * the waiting thread.
+     *
+     * @param message The error reported by the printer.
+     */
+    private synchronized void fail (@Nullable String message)
+    {
+        if (error != null)
+            return;
+
+        int count   = head != tail ? counts[head % maxWindow] : 0;
+        failedIndex = head != tail ? indexes[head % maxWindow] : -1;
+
+        if (count > 1) {
+            error = "Elementos " + failedIndex + " a " + (failedIndex + count - 1) + ": " + message;
+        } else if (failedIndex >= 0) {
+            error = "Elemento " + failedIndex + ": " + message;
+        } else {
+            error = message;
+        }
+
+        notifyAll();
+    }
+}
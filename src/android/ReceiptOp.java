@@ -0,0 +1,200 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cielo.printer.client.PrinterAttributes;
+
+/**
+ * Immutable, validated instruction of a compiled receipt.
+ */
+final class ReceiptOp
+{
+    // List of supported element types
+    enum Kind { TEXT, IMAGE }
+
+    // The position of the element within the source document
+    final int index;
+
+    // The number of consecutive source elements merged into the op
+    final int count;
+
+    // The type of the element
+    final @NonNull Kind kind;
+
+    // The text to print or the uri of the image
+    final @NonNull String value;
+
+    // One of the PrinterAttributes.VAL_ALIGN_* constants
+    final int align;
+
+    // The font size
+    final int textSize;
+
+    // The margins in the order left, right, top, bottom
+    final int marginLeft, marginRight, marginTop, marginBottom;
+
+    // The space between the lines
+    final int lineSpace;
+
+    // The SDK printer attributes derived from the fields above
+    final @NonNull Map<String, Integer> style;
+
+    /**
+     * Constructor
+     *
+     * @param index        The position within the source document.
+     * @param kind         The type of the element.
+     * @param value        The text to print or the uri of the image.
+     * @param align        One of the PrinterAttributes.VAL_ALIGN_* constants.
+     * @param textSize     The font size.
+     * @param marginLeft   The left margin.
+     * @param marginRight  The right margin.
+     * @param marginTop    The top margin.
+     * @param marginBottom The bottom margin.
+     * @param lineSpace    The space between the lines.
+     */
+    ReceiptOp (int index, @NonNull Kind kind, @NonNull String value,
+               int align, int textSize,
+               int marginLeft, int marginRight, int marginTop, int marginBottom,
+               int lineSpace)
+    {
+        this(index, 1, kind, value, align, textSize,
+             marginLeft, marginRight, marginTop, marginBottom, lineSpace);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param index        The position of the first source element.
+     * @param count        The number of source elements merged into the op.
+     * @param kind         The type of the element.
+     * @param value        The text to print or the uri of the image.
+     * @param align        One of the PrinterAttributes.VAL_ALIGN_* constants.
+     * @param textSize     The font size.
+     * @param marginLeft   The left margin.
+     * @param marginRight  The right margin.
+     * @param marginTop    The top margin.
+     * @param marginBottom The bottom margin.
+     * @param lineSpace    The space between the lines.
+     */
+    ReceiptOp (int index, int count, @NonNull Kind kind, @NonNull String value,
+               int align, int textSize,
+               int marginLeft, int marginRight, int marginTop, int marginBottom,
+               int lineSpace)
+    {
+        this.index        = index;
+        this.count        = count;
+        this.kind         = kind;
+        this.value        = value;
+        this.align        = align;
+        this.textSize     = textSize;
+        this.marginLeft   = marginLeft;
+        this.marginRight  = marginRight;
+        this.marginTop    = marginTop;
+        this.marginBottom = marginBottom;
+        this.lineSpace    = lineSpace;
+        this.style        = createStyle();
+    }
+
+    /**
+     * Returns the number of source elements the ops stand for.
+     *
+     * @param ops The compiled elements.
+     */
+    static int countElements (@NonNull List<ReceiptOp> ops)
+    {
+        int count = 0;
+
+        for (ReceiptOp op : ops)
+        {
+            count += op.count;
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns a copy of the op with another text or uri.
+     *
+     * @param value The new value.
+     */
+    @NonNull
+    ReceiptOp withValue (@NonNull String value)
+    {
+        return new ReceiptOp(index, count, kind, value, align, textSize,
+                marginLeft, marginRight, marginTop, marginBottom, lineSpace);
+    }
+
+    /**
+     * If both ops are printed with the same attributes.
+     *
+     * @param other The op to compare with.
+     */
+    boolean hasSameStyle (@NonNull ReceiptOp other)
+    {
+        return kind == other.kind
+                && align == other.align
+                && textSize == other.textSize
+                && marginLeft == other.marginLeft
+                && marginRight == other.marginRight
+                && marginTop == other.marginTop
+                && marginBottom == other.marginBottom
+                && lineSpace == other.lineSpace;
+    }
+
+    /**
+     * Converts the formatting into SDK printer attributes.
+     *
+     * @see <a href="https://developercielo.github.io/manual/cielo-lio">Cielo LIO</a>
+     */
+    @NonNull
+    private Map<String, Integer> createStyle()
+    {
+        HashMap<String, Integer> set = new HashMap<>();
+
+        set.put(PrinterAttributes.KEY_ALIGN, align);
+
+        if (kind == Kind.TEXT)
+        {
+            set.put(PrinterAttributes.KEY_TEXT_SIZE, textSize);
+            // Trabalha com um inteiro de 0 a 8, onde cada um é uma fonte diferente.
+            //set.put(PrinterAttributes.KEY_TYPE_FACE, fonteTipo);
+            set.put(PrinterAttributes.KEY_MARGIN_LEFT, marginLeft);
+            set.put(PrinterAttributes.KEY_MARGIN_RIGHT, marginRight);
+            set.put(PrinterAttributes.KEY_MARGIN_TOP, marginTop);
+            set.put(PrinterAttributes.KEY_MARGIN_BOTTOM, marginBottom);
+            set.put(PrinterAttributes.KEY_LINE_SPACE, lineSpace);
+            // Varíavel utilizada quando se trbaalho com impressão de múltiplas colunas,
+            // para escolher o peso de cada coluna.
+            // set.put(PrinterAttributes.KEY_WEIGHT, pesoColuna);
+        }
+
+        return Collections.unmodifiableMap(set);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Optimization passes over compiled receipts.
+ */
+final class ReceiptOptimizer
+{
+    // Max number of source elements merged into one op
+    private static final int MAX_LINES = 16;
+
+    // Max number of characters of a merged op
+    private static final int MAX_CHARS = 1024;
+
+    /**
+     * Constructor
+     */
+    private ReceiptOptimizer() {}
+
+    /**
+     * Merges runs of consecutive text ops with the same style into one
+     * multi-line op, so that they take one SDK call instead of one each.
+     *
+     * Ops with a top or bottom margin are left alone as the margin would
+     * apply to the merged block only once. A merged op keeps the index and
+     * number of the elements it covers, and is limited to MAX_LINES
+     * elements so that an error still points to a small range.
+     *
+     * @param ops The compiled elements of the receipt.
+     *
+     * @return The same list if there is nothing to merge.
+     */
+    @NonNull
+    static List<ReceiptOp> coalesce (@NonNull List<ReceiptOp> ops)
+    {
+        int size = ops.size();
+        List<ReceiptOp> merged = null;
+
+        for (int i = 0; i < size;)
+        {
+            ReceiptOp first = ops.get(i);
+            int end         = i + 1;
+            int chars       = first.value.length();
+
+            if (isMergeable(first))
+            {
+                while (end < size && end - i < MAX_LINES)
+                {
+                    ReceiptOp next = ops.get(end);
+
+                    if (!first.hasSameStyle(next) || chars + 1 + next.value.length() > MAX_CHARS)
+                        break;
+
+                    chars += 1 + next.value.length();
+                    end++;
+                }
+            }
+
+            if (end - i > 1 && merged == null)
+            {
+                merged = new ArrayList<>(ops.subList(0, i));
+            }
+
+            if (merged != null)
+            {
+                merged.add(end - i > 1 ? merge(ops, i, end, chars) : first);
+            }
+
+            i = end;
+        }
+
+        return merged != null ? Collections.unmodifiableList(merged) : ops;
+    }
+
+    /**
+     * If the op may be merged with its successors.
+     *
+     * @param op The op to check.
+     */
+    private static boolean isMergeable (@NonNull ReceiptOp op)
+    {
+        return op.kind == ReceiptOp.Kind.TEXT
+                && op.marginTop == 0 && op.marginBottom == 0
+                && op.count == 1;
+    }
+
+    /**
+     * Joins the text of the ops from start to end into one op.
+     *
+     * @param ops   The compiled elements of the receipt.
+     * @param start The index of the first op.
+     * @param end   The index after the last op.
+     * @param chars The length of the joined text.
+     */
+    @NonNull
+    private static ReceiptOp merge (@NonNull List<ReceiptOp> ops, int start,
+                                    int end, int chars)
+    {
+        ReceiptOp first   = ops.get(start);
+        StringBuilder txt = new StringBuilder(chars);
+
+        for (int i = start; i < end; i++)
+        {
+            if (i > start) txt.append('\n');
+            txt.append(ops.get(i).value);
+        }
+
+        return new ReceiptOp(first.index, end - start, first.kind, txt.toString(),
+                first.align, first.textSize,
+                first.marginLeft, first.marginRight, 0, 0, first.lineSpace);
+    }
+}
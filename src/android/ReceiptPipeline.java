@@ -0,0 +1,362 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cielo.printer.client.PrinterAttributes;
+import cielo.sdk.printer.PrinterManager;
+
+/**
+ * Staged pipeline to send the elements of a receipt to the printer.
+ *
+ * Heavy elements like images are decoded and rasterized ahead of time on a
+ * bounded worker pool, while the dispatcher keeps sending the elements to
+ * the printer in document order.
+ */
+class ReceiptPipeline
+{
+    // Pixel width of the thermal printer head
+    static final int HEAD_WIDTH = 384;
+
+    // Max number of rows of a raster strip sent with one image call
+    private static final int MAX_STRIP_HEIGHT = 4096;
+
+    // Max number of heavy elements prepared ahead of the dispatcher
+    private static final int LOOKAHEAD = 4;
+
+    // Workers shared by all jobs to prepare the heavy elements
+    private static final ThreadPoolExecutor workers = createWorkers();
+
+    // The application context
+    private final @NonNull Context context;
+
+    // The SDK printer to send the elements to
+    private final @NonNull PrinterManager printer;
+
+    // The listener to inform about the printed elements
+    private final @NonNull ReceiptListener listener;
+
+    /**
+     * Constructor
+     *
+     * @param context  The context where to look for resources.
+     * @param printer  The SDK printer to send the elements to.
+     * @param listener The listener to inform about the printed elements.
+     */
+    ReceiptPipeline (@NonNull Context context,
+                     @NonNull PrinterManager printer,
+                     @NonNull ReceiptListener listener)
+    {
+        this.context  = context;
+        this.printer  = printer;
+        this.listener = listener;
+    }
+
+    /**
+     * Sends all elements to the printer in document order. Up to LOOKAHEAD
+     * heavy elements get prepared ahead of the dispatcher.
+     *
+     * @param elements The compiled elements of the receipt.
+     *
+     * @return The number of elements sent to the printer.
+     *
+     * @throws IOException If an element could not be prepared.
+     */
+    int run (@NonNull List<ReceiptOp> elements) throws IOException
+    {
+        int count                     = elements.size();
+        PrintTrace trace              = PrintTrace.current();
+        List<Future<Bitmap>> prepared = new ArrayList<>(count);
+        int scan                      = 0;
+        int ahead                     = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            prepared.add(null);
+        }
+
+        try {
+            for (int i = 0; i < count; i++)
+            {
+                ReceiptOp element = elements.get(i);
+
+                for (; scan < count && ahead < LOOKAHEAD; scan++)
+                {
+                    ReceiptOp next = elements.get(scan);
+
+                    if (isHeavy(next))
+                    {
+                        prepared.set(scan, workers.submit(() -> rasterize(next, trace)));
+                        ahead++;
+                    }
+                }
+
+                if (isHeavy(element))
+                {
+                    ahead--;
+
+                    Bitmap bitmap = await(prepared.set(i, null), element.index);
+
+                    if (!acquire(element))
+                    {
+                        bitmap.recycle();
+                        return i;
+                    }
+
+                    int span = trace.begin("dispatch", element.index);
+
+                    trace.beginPending("ack", element.index);
+                    listener.sent(element.index, element.count);
+                    printer.printImage(bitmap, element.style, listener);
+                    trace.end(span);
+                }
+                else
+                {
+                    if (!acquire(element)) return i;
+
+                    int span = trace.begin("dispatch", element.index);
+
+                    trace.beginPending("ack", element.index);
+                    listener.sent(element.index, element.count);
+                    printer.printText(element.value, element.style, listener);
+                    trace.end(span);
+                }
+            }
+        } finally {
+            release(prepared);
+        }
+
+        return count;
+    }
+
+    /**
+     * Draws all elements onto one 1-bit raster and sends it with a single
+     * image call. Receipts taller than MAX_STRIP_HEIGHT get split into
+     * strips to bound the size of the bitmap handed to the SDK.
+     *
+     * @param elements The compiled elements of the receipt.
+     *
+     * @return The number of elements sent to the printer.
+     *
+     * @throws IOException If an image could not be decoded,
+     *                     or the thread got interrupted.
+     */
+    int runRaster (@NonNull List<ReceiptOp> elements) throws IOException
+    {
+        if (elements.isEmpty())
+            return 0;
+
+        PrintTrace trace     = PrintTrace.current();
+        ReceiptOp first      = elements.get(0);
+        ReceiptOp last       = elements.get(elements.size() - 1);
+        int count            = last.index + last.count - first.index;
+        int span             = trace.begin("raster", first.index);
+        ReceiptRaster raster = ReceiptRaster.render(context, elements);
+        ReceiptOp strip      = new ReceiptOp(first.index, count, ReceiptOp.Kind.IMAGE, "",
+                PrinterAttributes.VAL_ALIGN_CENTER, 0, 0, 0, 0, 0, 0);
+
+        trace.end(span);
+
+        for (int top = 0; top < raster.height; top += MAX_STRIP_HEIGHT)
+        {
+            Bitmap bitmap = raster.toBitmap(top, Math.min(MAX_STRIP_HEIGHT, raster.height - top));
+            boolean last  = top + MAX_STRIP_HEIGHT >= raster.height;
+
+            if (!acquire(strip))
+            {
+                bitmap.recycle();
+                return 0;
+            }
+
+            span = trace.begin("dispatch", first.index);
+
+            trace.beginPending("ack", first.index);
+            // The elements are done once the last strip got acknowledged
+            listener.sent(strip.index, strip.count, last ? strip.count : 0);
+            printer.printImage(bitmap, strip.style, listener);
+            trace.end(span);
+        }
+
+        return elements.size();
+    }
+
+    /**
+     * Waits until the element fits into the window of the listener.
+     *
+     * @param element The element to send next.
+     *
+     * @return false if the printer failed meanwhile and no further
+     *         elements should be sent.
+     *
+     * @throws IOException If the thread got interrupted.
+     */
+    private boolean acquire (@NonNull ReceiptOp element) throws IOException
+    {
+        PrintTrace trace = PrintTrace.current();
+        int span         = trace.begin("window", element.index);
+
+        try {
+            return listener.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to send element " + element.index);
+        } finally {
+            trace.end(span);
+        }
+    }
+
+    /**
+     * Cancels the preparations the dispatcher did not pick up, like after
+     * an error or once the job got cancelled, and frees their bitmaps.
+     *
+     * @param prepared The pending preparations by element.
+     */
+    private static void release (@NonNull List<Future<Bitmap>> prepared)
+    {
+        for (Future<Bitmap> future : prepared)
+        {
+            if (future == null || future.cancel(true))
+                continue;
+
+            try {
+                Bitmap bitmap = future.get();
+
+                if (bitmap != null) bitmap.recycle();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * If the element needs expensive preparation before it can be printed.
+     *
+     * @param element The element to check.
+     */
+    private static boolean isHeavy (@NonNull ReceiptOp element)
+    {
+        return element.kind == ReceiptOp.Kind.IMAGE;
+    }
+
+    /**
+     * Decodes the image referenced by the element and scales it down to
+     * the width of the printer head.
+     *
+     * @param element The element which value is a file://, res:// or
+     *                base64:// uri.
+     * @param trace   The trace of the job.
+     *
+     * @return The bitmap or null if the uri is not valid.
+     */
+    @Nullable
+    private Bitmap rasterize (@NonNull ReceiptOp element, @NonNull PrintTrace trace)
+    {
+        int span      = trace.beginAsync("prepare", element.index);
+        Bitmap bitmap = PrintContent.decode(element.value, context);
+
+        if (bitmap == null || bitmap.getWidth() <= HEAD_WIDTH)
+        {
+            trace.endAsync(span);
+            return bitmap;
+        }
+
+        int height    = bitmap.getHeight() * HEAD_WIDTH / bitmap.getWidth();
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, HEAD_WIDTH, Math.max(height, 1), true);
+
+        bitmap.recycle();
+        trace.endAsync(span);
+
+        return scaled;
+    }
+
+    /**
+     * Waits until the prepared bitmap is available.
+     *
+     * @param future The pending preparation.
+     * @param index  The position of the element within the receipt.
+     *
+     * @throws IOException If the preparation failed.
+     */
+    @NonNull
+    private static Bitmap await (@NonNull Future<Bitmap> future, int index)
+            throws IOException
+    {
+        Bitmap bitmap;
+
+        try {
+            bitmap = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while preparing element " + index);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not prepare element " + index, e.getCause());
+        }
+
+        if (bitmap == null)
+            throw new IOException("Invalid image at element " + index);
+
+        return bitmap;
+    }
+
+    /**
+     * Creates the bounded pool of workers. The threads are allowed to
+     * time out so that an idle terminal does not keep them alive.
+     */
+    @NonNull
+    private static ThreadPoolExecutor createWorkers()
+    {
+        int size              = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        AtomicInteger counter = new AtomicInteger();
+
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "printer-prepare-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        };
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(size * LOOKAHEAD),
+                factory, new ThreadPoolExecutor.CallerRunsPolicy());
+
+        pool.allowCoreThreadTimeOut(true);
+
+        return pool;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Draws a whole compiled receipt onto a 1-bit raster at the width of the
+ * printer head, so that it can be sent with one image call instead of one
+ * text call per element.
+ *
+ * The receipt gets laid out by the ReceiptRenderer. Images are drawn band
+ * by band into a small ARGB buffer and each band is dithered with
+ * Floyd-Steinberg straight into rows of packed bits, 8 pixels per byte with
+ * the most significant bit first and set bits for black. The error of the
+ * last row carries over into the next band, so the bands join without
+ * seams. Bands without images are skipped. Text is not drawn that way but
+ * set glyph by glyph from the masks of the GlyphAtlas into the packed rows.
+ * The full receipt never exists as ARGB bitmap, only as packed bits and
+ * the strips expanded from them for the printer.
+ */
+final class ReceiptRaster
+{
+    // The number of rows drawn at once
+    private static final int BAND_HEIGHT = 128;
+
+    // The luminance below that a pixel turns black
+    private static final int THRESHOLD = 128;
+
+    // The width of the raster in pixels
+    final int width;
+
+    // The height of the raster in pixels
+    final int height;
+
+    // The number of bytes per row
+    final int stride;
+
+    // The packed pixels row by row
+    final @NonNull byte[] bits;
+
+    /**
+     * Constructor
+     *
+     * @param width  The width in pixels.
+     * @param height The height in pixels.
+     */
+    private ReceiptRaster (int width, int height)
+    {
+        this.width  = width;
+        this.height = height;
+        this.stride = (width + 7) >> 3;
+        this.bits   = new byte[stride * height];
+    }
+
+    /**
+     * Lays out the ops at the width of the printer head and rasterizes them.
+     *
+     * @param context The context where to look for resources.
+     * @param ops     The compiled elements of the receipt.
+     *
+     * @return The raster of the whole receipt.
+     *
+     * @throws IOException If an image could not be decoded.
+     */
+    @NonNull
+    static ReceiptRaster render (@NonNull Context context, @NonNull List<ReceiptOp> ops)
+            throws IOException
+    {
+        int width                = ReceiptPipeline.HEAD_WIDTH;
+        ReceiptRenderer renderer = new ReceiptRenderer(context, ops);
+
+        try {
+            renderer.layout(width, Integer.MAX_VALUE);
+
+            if (renderer.getInvalidImage() >= 0)
+                throw new IOException("Invalid image at element " + renderer.getInvalidImage());
+
+            ReceiptRaster raster = new ReceiptRaster(width, Math.max(1, renderer.getHeight()));
+
+            raster.draw(renderer);
+
+            return raster;
+        } finally {
+            renderer.recycle();
+        }
+    }
+
+    /**
+     * Draws the images of the laid out receipt band by band, dithers each
+     * band into the packed rows and sets the glyphs of the text on top.
+     *
+     * @param renderer The renderer with the receipt laid out on one page.
+     */
+    private void draw (@NonNull ReceiptRenderer renderer)
+    {
+        int band      = Math.min(BAND_HEIGHT, height);
+        Bitmap buffer = Bitmap.createBitmap(width, band, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(buffer);
+        int[] pixels  = new int[width * band];
+        int[] error   = new int[width + 2];
+        int[] next    = new int[width + 2];
+        boolean dirty = false;
+
+        try {
+            for (int top = 0; top < height; top += band)
+            {
+                int rows = Math.min(band, height - top);
+
+                if (dirty) buffer.eraseColor(Color.WHITE);
+
+                canvas.save();
+                canvas.translate(0, -top);
+                dirty = renderer.draw(0, canvas, top, top + rows, true);
+                canvas.restore();
+
+                if (!dirty)
+                {
+                    Arrays.fill(error, 0);
+                    continue;
+                }
+
+                buffer.getPixels(pixels, 0, width, 0, 0, width, rows);
+
+                for (int y = 0; y < rows; y++)
+                {
+                    ditherRow(pixels, y * width, (top + y) * stride, error, next);
+
+                    int[] swap = error;
+                    error      = next;
+                    next       = swap;
+
+                    Arrays.fill(next, 0);
+                }
+            }
+        } finally {
+            buffer.recycle();
+        }
+
+        renderer.drawGlyphs(0, this);
+    }
+
+    /**
+     * Sets the black pixels of the glyph into the packed rows. The pixels
+     * outside of the raster and the vertical range get clipped.
+     *
+     * @param glyph  The mask of the character.
+     * @param x      The column of the left edge of the mask.
+     * @param y      The row of the top edge of the mask.
+     * @param top    The first row of the range.
+     * @param bottom The row after the last row of the range.
+     */
+    void blit (@NonNull GlyphAtlas.Glyph glyph, int x, int y, int top, int bottom)
+    {
+        int from = Math.max(y, Math.max(top, 0));
+        int to   = Math.min(y + glyph.height, Math.min(bottom, height));
+
+        for (int row = from; row < to; row++)
+        {
+            int in  = (row - y) * glyph.words;
+            int out = row * stride;
+
+            for (int word = 0; word < glyph.words; word++)
+            {
+                int mask = glyph.rows[in + word];
+
+                if (mask == 0)
+                    continue;
+
+                int left   = x + (word << 5);
+                int offset = left >> 3;
+                long span  = (mask & 0xFFFFFFFFL) << (8 - (left & 7));
+
+                for (int i = 0; i < 5; i++)
+                {
+                    int col = offset + i;
+                    int b   = (int) (span >>> (32 - 8 * i)) & 0xFF;
+
+                    if (b != 0 && col >= 0 && col < stride)
+                    {
+                        bits[out + col] |= (byte) b;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Dithers one row of ARGB pixels into packed bits.
+     *
+     * @param pixels The ARGB pixels of the band.
+     * @param offset The offset of the row within the pixels.
+     * @param out    The offset of the row within the bits.
+     * @param error  The error diffused into this row, shifted by one.
+     * @param next   The error to diffuse into the next row, shifted by one.
+     */
+    private void ditherRow (@NonNull int[] pixels, int offset, int out,
+                            @NonNull int[] error, @NonNull int[] next)
+    {
+        byte[] bits = this.bits;
+        int acc     = 0;
+
+        for (int x = 0; x < width; x++)
+        {
+            int argb = pixels[offset + x];
+            int lum  = (((argb >> 16) & 0xFF) * 77
+                      + ((argb >> 8) & 0xFF) * 150
+                      + (argb & 0xFF) * 29) >> 8;
+            int v    = lum + error[x + 1];
+            int err;
+
+            if (v < THRESHOLD)
+            {
+                acc |= 0x80 >>> (x & 7);
+                err  = v;
+            }
+            else
+            {
+                err = v - 255;
+            }
+
+            error[x + 2] += (err * 7) >> 4;
+            next[x]      += (err * 3) >> 4;
+            next[x + 1]  += (err * 5) >> 4;
+            next[x + 2]  += err >> 4;
+
+            if ((x & 7) == 7)
+            {
+                bits[out + (x >> 3)] = (byte) acc;
+                acc                  = 0;
+            }
+        }
+
+        if ((width & 7) != 0)
+        {
+            bits[out + (width >> 3)] = (byte) acc;
+        }
+    }
+
+    /**
+     * Expands the rows of the strip into a black and white bitmap for the
+     * printer.
+     *
+     * @param top  The first row of the strip.
+     * @param rows The number of rows.
+     */
+    @NonNull
+    Bitmap toBitmap (int top, int rows)
+    {
+        Bitmap bitmap = Bitmap.createBitmap(width, rows, Bitmap.Config.RGB_565);
+        int[] row     = new int[width];
+
+        for (int y = 0; y < rows; y++)
+        {
+            int in = (top + y) * stride;
+
+            for (int x = 0; x < width; x++)
+            {
+                boolean black = (bits[in + (x >> 3)] & (0x80 >>> (x & 7))) != 0;
+
+                row[x] = black ? Color.BLACK : Color.WHITE;
+            }
+
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+
+        return bitmap;
+    }
+}
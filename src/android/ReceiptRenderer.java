@@ -0,0 +1,585 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import cielo.printer.client.PrinterAttributes;
+
+/**
+ * Draws plain text and compiled receipts straight onto pages without the
+ * need of a web view. The content gets laid out once per page size and
+ * can then be drawn page by page.
+ */
+class ReceiptRenderer
+{
+    // Something that can be drawn onto a page
+    private interface Slice
+    {
+        void draw (@NonNull Canvas canvas);
+
+        int getTop();
+
+        int getBottom();
+
+        boolean hasGlyphs();
+
+        void drawGlyphs (@NonNull ReceiptRaster raster);
+    }
+
+    // The application context
+    private final @NonNull Context context;
+
+    // The compiled elements to draw
+    private final @NonNull List<ReceiptOp> ops;
+
+    // The typeface to draw the text with
+    private final @NonNull Typeface typeface;
+
+    // The decoded images by op index
+    private final @NonNull SparseArray<Bitmap> images = new SparseArray<>();
+
+    // The slices of each page of the last layout
+    private final @NonNull List<List<Slice>> pages = new ArrayList<>();
+
+    // The height of the content on the last page of the last layout
+    private int height;
+
+    // The index of the first image that could not be decoded, -1 if none
+    private int invalidImage = -1;
+
+    /**
+     * Constructor
+     *
+     * @param context The context where to look for resources.
+     * @param ops     The compiled elements of the receipt.
+     */
+    ReceiptRenderer (@NonNull Context context, @NonNull List<ReceiptOp> ops)
+    {
+        this(context, ops, Typeface.MONOSPACE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context  The context where to look for resources.
+     * @param ops      The compiled elements of the receipt.
+     * @param typeface The typeface to draw the text with.
+     */
+    private ReceiptRenderer (@NonNull Context context,
+                             @NonNull List<ReceiptOp> ops,
+                             @NonNull Typeface typeface)
+    {
+        this.context  = context;
+        this.ops      = ops;
+        this.typeface = typeface;
+    }
+
+    /**
+     * Creates a renderer for plain text.
+     *
+     * @param context  The context where to look for resources.
+     * @param text     The text to draw.
+     * @param textSize The font size in points.
+     */
+    @NonNull
+    static ReceiptRenderer forText (@NonNull Context context,
+                                    @NonNull String text, int textSize)
+    {
+        ReceiptOp op = new ReceiptOp(0, ReceiptOp.Kind.TEXT, text,
+                PrinterAttributes.VAL_ALIGN_LEFT, textSize, 0, 0, 0, 0, 0);
+
+        return new ReceiptRenderer(context, Collections.singletonList(op), Typeface.DEFAULT);
+    }
+
+    /**
+     * Splits the content into pages of the given size.
+     *
+     * @param width  The width of the content area.
+     * @param height The height of the content area.
+     *
+     * @return The number of pages.
+     */
+    int layout (int width, int height)
+    {
+        List<Slice> page = new ArrayList<>();
+        int y            = 0;
+
+        pages.clear();
+        pages.add(page);
+        invalidImage = -1;
+
+        for (ReceiptOp op : ops)
+        {
+            int x     = op.marginLeft;
+            int avail = Math.max(width - op.marginLeft - op.marginRight, 1);
+
+            y += op.marginTop;
+
+            if (op.kind == ReceiptOp.Kind.IMAGE)
+            {
+                Bitmap bitmap = getImage(op);
+
+                if (bitmap == null)
+                {
+                    if (invalidImage < 0) invalidImage = op.index;
+                    continue;
+                }
+
+                float scale = Math.min(1f, Math.min((float) avail / bitmap.getWidth(),
+                                                    (float) height / bitmap.getHeight()));
+                int w       = Math.max(1, (int) (bitmap.getWidth() * scale));
+                int h       = Math.max(1, (int) (bitmap.getHeight() * scale));
+
+                if (y + h > height && !page.isEmpty())
+                {
+                    page = newPage();
+                    y    = 0;
+                }
+
+                x += getOffset(op.align, avail, w);
+                page.add(new BitmapSlice(bitmap, new Rect(x, y, x + w, y + h)));
+                y += h;
+            }
+            else
+            {
+                StaticLayout text = createLayout(op, avail);
+                int count         = text.getLineCount();
+                int line          = 0;
+
+                while (line < count)
+                {
+                    int top  = text.getLineTop(line);
+                    int last = line;
+
+                    while (last < count && text.getLineBottom(last) - top <= height - y)
+                    {
+                        last++;
+                    }
+
+                    if (last == line && !page.isEmpty())
+                    {
+                        page = newPage();
+                        y    = 0;
+                        continue;
+                    }
+
+                    last = Math.max(last, line + 1);
+
+                    page.add(new LayoutSlice(text, line, last, x, y));
+                    y   += text.getLineTop(last) - top;
+                    line = last;
+                }
+            }
+
+            y += op.marginBottom;
+        }
+
+        this.height = y;
+
+        return pages.size();
+    }
+
+    /**
+     * Returns the height of the content on the last page of the last
+     * layout. For a layout without page height it is the height of the
+     * whole content.
+     */
+    int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Returns the index of the first image of the last layout that could
+     * not be decoded and got left out.
+     *
+     * @return -1 if all images could be decoded.
+     */
+    int getInvalidImage()
+    {
+        return invalidImage;
+    }
+
+    /**
+     * Draws the page of the last layout onto the canvas. The origin of the
+     * canvas has to be the top left corner of the content area.
+     *
+     * @param index  The index of the page.
+     * @param canvas The canvas to draw onto.
+     */
+    void draw (int index, @NonNull Canvas canvas)
+    {
+        draw(index, canvas, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Draws the slices of the page that overlap the vertical range. The
+     * slices of a page are ordered from top to bottom, so the first one
+     * gets found by binary search.
+     *
+     * @param index  The index of the page.
+     * @param canvas The canvas to draw onto.
+     * @param top    The first row of the range.
+     * @param bottom The row after the last row of the range.
+     */
+    void draw (int index, @NonNull Canvas canvas, int top, int bottom)
+    {
+        draw(index, canvas, top, bottom, false);
+    }
+
+    /**
+     * Draws the slices of the page that overlap the vertical range. The
+     * slices of a page are ordered from top to bottom, so the first one
+     * gets found by binary search.
+     *
+     * @param index      The index of the page.
+     * @param canvas     The canvas to draw onto.
+     * @param top        The first row of the range.
+     * @param bottom     The row after the last row of the range.
+     * @param skipGlyphs If the text that drawGlyphs can draw gets left out.
+     *
+     * @return true if something got drawn onto the canvas.
+     */
+    boolean draw (int index, @NonNull Canvas canvas, int top, int bottom, boolean skipGlyphs)
+    {
+        if (index < 0 || index >= pages.size())
+            return false;
+
+        List<Slice> page = pages.get(index);
+        int low          = 0;
+        int high         = page.size();
+
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+
+            if (page.get(mid).getBottom() <= top) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        boolean drawn = false;
+
+        for (int i = low; i < page.size(); i++)
+        {
+            Slice slice = page.get(i);
+
+            if (slice.getTop() >= bottom)
+                break;
+
+            if (skipGlyphs && slice.hasGlyphs())
+                continue;
+
+            slice.draw(canvas);
+            drawn = true;
+        }
+
+        return drawn;
+    }
+
+    /**
+     * Sets the pre-rasterized glyphs of the text of the page straight into
+     * the packed rows of the raster. Text that cannot be drawn glyph by
+     * glyph is left to draw.
+     *
+     * @param index  The index of the page.
+     * @param raster The raster to draw into.
+     */
+    void drawGlyphs (int index, @NonNull ReceiptRaster raster)
+    {
+        if (index < 0 || index >= pages.size())
+            return;
+
+        for (Slice slice : pages.get(index))
+        {
+            if (slice.hasGlyphs())
+            {
+                slice.drawGlyphs(raster);
+            }
+        }
+    }
+
+    /**
+     * Releases the decoded images.
+     */
+    void recycle()
+    {
+        for (int i = 0; i < images.size(); i++)
+        {
+            Bitmap bitmap = images.valueAt(i);
+
+            if (bitmap != null)
+            {
+                bitmap.recycle();
+            }
+        }
+
+        images.clear();
+        pages.clear();
+    }
+
+    /**
+     * Appends a new empty page.
+     */
+    @NonNull
+    private List<Slice> newPage()
+    {
+        List<Slice> page = new ArrayList<>();
+
+        pages.add(page);
+
+        return page;
+    }
+
+    /**
+     * Returns the decoded image of the op. Images get decoded only once.
+     *
+     * @param op The image op.
+     */
+    @Nullable
+    private Bitmap getImage (@NonNull ReceiptOp op)
+    {
+        if (images.indexOfKey(op.index) < 0)
+        {
+            images.put(op.index, PrintContent.decode(op.value, context));
+        }
+
+        return images.get(op.index);
+    }
+
+    /**
+     * Creates the text layout for the op.
+     *
+     * @param op    The text op.
+     * @param width The available width.
+     */
+    @NonNull
+    private StaticLayout createLayout (@NonNull ReceiptOp op, int width)
+    {
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        Layout.Alignment align;
+
+        paint.setTypeface(typeface);
+        paint.setTextSize(op.textSize);
+
+        if (op.align == PrinterAttributes.VAL_ALIGN_RIGHT)
+        {
+            align = Layout.Alignment.ALIGN_OPPOSITE;
+        }
+        else if (op.align == PrinterAttributes.VAL_ALIGN_CENTER)
+        {
+            align = Layout.Alignment.ALIGN_CENTER;
+        }
+        else
+        {
+            align = Layout.Alignment.ALIGN_NORMAL;
+        }
+
+        return new StaticLayout(op.value, paint, width, align, 1f, op.lineSpace, false);
+    }
+
+    /**
+     * Returns the horizontal offset to align an item within the area.
+     *
+     * @param align One of the PrinterAttributes.VAL_ALIGN_* constants.
+     * @param avail The available width.
+     * @param width The width of the item.
+     */
+    private static int getOffset (int align, int avail, int width)
+    {
+        if (align == PrinterAttributes.VAL_ALIGN_RIGHT)
+            return avail - width;
+
+        if (align == PrinterAttributes.VAL_ALIGN_CENTER)
+            return (avail - width) / 2;
+
+        return 0;
+    }
+
+    /**
+     * Some lines of a text layout.
+     */
+    private static final class LayoutSlice implements Slice
+    {
+        private final @NonNull StaticLayout layout;
+        private final int from, to, x, y;
+        private Boolean glyphs;
+
+        LayoutSlice (@NonNull StaticLayout layout, int from, int to, int x, int y)
+        {
+            this.layout = layout;
+            this.from   = from;
+            this.to     = to;
+            this.x      = x;
+            this.y      = y;
+        }
+
+        @Override
+        public void draw (@NonNull Canvas canvas)
+        {
+            int top    = layout.getLineTop(from);
+            int bottom = layout.getLineTop(to);
+
+            canvas.save();
+            canvas.translate(x, y - top);
+            canvas.clipRect(0, top, layout.getWidth(), bottom);
+            layout.draw(canvas);
+            canvas.restore();
+        }
+
+        @Override
+        public int getTop()
+        {
+            return y;
+        }
+
+        @Override
+        public int getBottom()
+        {
+            return y + layout.getLineTop(to) - layout.getLineTop(from);
+        }
+
+        @Override
+        public boolean hasGlyphs()
+        {
+            if (glyphs == null)
+            {
+                glyphs = canDrawGlyphs();
+            }
+
+            return glyphs;
+        }
+
+        @Override
+        public void drawGlyphs (@NonNull ReceiptRaster raster)
+        {
+            CharSequence text = layout.getText();
+            GlyphAtlas atlas  = GlyphAtlas.get(layout.getPaint());
+            int top           = layout.getLineTop(from);
+            int bottom        = y + layout.getLineTop(to) - top;
+
+            for (int line = from; line < to; line++)
+            {
+                int start      = layout.getLineStart(line);
+                int end        = layout.getLineEnd(line);
+                int baseline   = y - top + layout.getLineBaseline(line);
+                float pen      = x + layout.getLineLeft(line);
+                float[] widths = new float[end - start];
+
+                layout.getPaint().getTextWidths(text, start, end, widths);
+
+                for (int i = start; i < end; i++)
+                {
+                    GlyphAtlas.Glyph glyph = atlas.getGlyph(text.charAt(i));
+
+                    raster.blit(glyph, Math.round(pen) + glyph.left,
+                            baseline + glyph.top, y, bottom);
+
+                    pen += widths[i - start];
+                }
+            }
+        }
+
+        /**
+         * If all lines run left to right and consist of characters that
+         * can be drawn glyph by glyph.
+         */
+        private boolean canDrawGlyphs()
+        {
+            CharSequence text = layout.getText();
+
+            for (int line = from; line < to; line++)
+            {
+                if (layout.getParagraphDirection(line) != Layout.DIR_LEFT_TO_RIGHT)
+                    return false;
+
+                for (int i = layout.getLineStart(line); i < layout.getLineEnd(line); i++)
+                {
+                    if (!GlyphAtlas.canDraw(text.charAt(i)))
+                        return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * An image scaled into its destination rect.
+     */
+    private static final class BitmapSlice implements Slice
+    {
+        private final @NonNull Bitmap bitmap;
+        private final @NonNull Rect dest;
+
+        BitmapSlice (@NonNull Bitmap bitmap, @NonNull Rect dest)
+        {
+            this.bitmap = bitmap;
+            this.dest   = dest;
+        }
+
+        @Override
+        public void draw (@NonNull Canvas canvas)
+        {
+            canvas.drawBitmap(bitmap, null, dest, null);
+        }
+
+        @Override
+        public int getTop()
+        {
+            return dest.top;
+        }
+
+        @Override
+        public int getBottom()
+        {
+            return dest.bottom;
+        }
+
+        @Override
+        public boolean hasGlyphs()
+        {
+            return false;
+        }
+
+        @Override
+        public void drawGlyphs (@NonNull ReceiptRaster raster) {}
+    }
+}
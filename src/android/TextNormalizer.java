@@ -0,0 +1,328 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Replaces the characters the font of a thermal printer cannot render
+ * with the closest ones it can. The replacements are looked up in a table
+ * indexed by the code point that gets built once per charset. Strings
+ * made of printable ASCII only are returned as they are without any
+ * allocation.
+ */
+final class TextNormalizer
+{
+    // Code points covered by the table, up to the letterlike symbols
+    private static final int TABLE_SIZE = 0x2200;
+
+    // The printer supports ASCII only, everything else gets transliterated
+    private static volatile TextNormalizer ascii;
+
+    // The printer supports Latin-1, typographic symbols get replaced
+    private static volatile TextNormalizer latin1;
+
+    // The replacement by code point, null to keep the character
+    private final @NonNull String[] table = new String[TABLE_SIZE];
+
+    // The highest code point the printer can render as it is
+    private final char maxChar;
+
+    /**
+     * Constructor
+     *
+     * @param maxChar The highest code point the printer can render.
+     */
+    private TextNormalizer (char maxChar)
+    {
+        this.maxChar = maxChar;
+
+        for (char c = 0xA0; c < 0x250; c++)
+        {
+            if (c > maxChar)
+            {
+                table[c] = stripMarks(c);
+            }
+        }
+
+        put(0x00A1, "!");
+        put(0x00A2, "c");
+        put(0x00A3, "L");
+        put(0x00A5, "Y");
+        put(0x00A7, "S");
+        put(0x00A9, "(C)");
+        put(0x00AA, "a");
+        put(0x00AB, "\"");
+        put(0x00AE, "(R)");
+        put(0x00B0, "o");
+        put(0x00B1, "+-");
+        put(0x00B2, "2");
+        put(0x00B3, "3");
+        put(0x00B5, "u");
+        put(0x00B7, ".");
+        put(0x00B9, "1");
+        put(0x00BA, "o");
+        put(0x00BB, "\"");
+        put(0x00BC, "1/4");
+        put(0x00BD, "1/2");
+        put(0x00BE, "3/4");
+        put(0x00BF, "?");
+        put(0x00C6, "AE");
+        put(0x00D0, "D");
+        put(0x00D7, "x");
+        put(0x00D8, "O");
+        put(0x00DE, "TH");
+        put(0x00DF, "ss");
+        put(0x00E6, "ae");
+        put(0x00F0, "d");
+        put(0x00F7, "/");
+        put(0x00F8, "o");
+        put(0x00FE, "th");
+        put(0x0152, "OE");
+        put(0x0153, "oe");
+
+        table[0x00A0] = " ";
+        table[0x00AD] = "";
+
+        for (int c = 0x2000; c <= 0x200A; c++)
+        {
+            table[c] = " ";
+        }
+
+        table[0x200B] = "";
+        table[0x200C] = "";
+        table[0x200D] = "";
+
+        for (int c = 0x2010; c <= 0x2015; c++)
+        {
+            table[c] = "-";
+        }
+
+        table[0x2018] = "'";
+        table[0x2019] = "'";
+        table[0x201A] = "'";
+        table[0x201B] = "'";
+        table[0x201C] = "\"";
+        table[0x201D] = "\"";
+        table[0x201E] = "\"";
+        table[0x201F] = "\"";
+        table[0x2022] = "*";
+        table[0x2026] = "...";
+        table[0x202F] = " ";
+        table[0x2032] = "'";
+        table[0x2033] = "\"";
+        table[0x2039] = "<";
+        table[0x203A] = ">";
+        table[0x2044] = "/";
+        table[0x20AC] = "EUR";
+        table[0x2116] = "No";
+        table[0x2122] = "TM";
+
+        for (int c = 0x0300; c <= 0x036F; c++)
+        {
+            table[c] = "";
+        }
+    }
+
+    /**
+     * Returns the normalizer for the charset.
+     *
+     * @param charset One of ascii, latin1 or none.
+     *
+     * @return null if the text should be left as it is.
+     */
+    @Nullable
+    static TextNormalizer forCharset (@Nullable String charset)
+    {
+        if (charset == null)
+            return null;
+
+        switch (charset.toLowerCase())
+        {
+            case "ascii":
+                if (ascii == null) ascii = new TextNormalizer((char) 0x7E);
+                return ascii;
+            case "latin1":
+            case "iso-8859-1":
+                if (latin1 == null) latin1 = new TextNormalizer((char) 0xFF);
+                return latin1;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Normalizes the text of all text ops.
+     *
+     * @param ops The compiled elements of the receipt.
+     *
+     * @return The same list if no text had to be changed.
+     */
+    @NonNull
+    List<ReceiptOp> normalize (@NonNull List<ReceiptOp> ops)
+    {
+        List<ReceiptOp> result = null;
+
+        for (int i = 0; i < ops.size(); i++)
+        {
+            ReceiptOp op = ops.get(i);
+            String text  = op.kind == ReceiptOp.Kind.TEXT ? normalize(op.value) : op.value;
+
+            if (text != op.value && result == null)
+            {
+                result = new ArrayList<>(ops.subList(0, i));
+            }
+
+            if (result != null)
+            {
+                result.add(text != op.value ? op.withValue(text) : op);
+            }
+        }
+
+        return result != null ? Collections.unmodifiableList(result) : ops;
+    }
+
+    /**
+     * Replaces the characters the printer cannot render.
+     *
+     * @param text The text to normalize.
+     *
+     * @return The same instance if nothing had to be replaced.
+     */
+    @NonNull
+    String normalize (@NonNull String text)
+    {
+        int len = text.length();
+        int i   = 0;
+
+        while (i < len && isPrintable(text.charAt(i)))
+        {
+            i++;
+        }
+
+        if (i == len)
+            return text;
+
+        if (maxChar > 0x7E && hasMarks(text, i))
+        {
+            text = Normalizer.normalize(text, Normalizer.Form.NFC);
+            len  = text.length();
+            i    = 0;
+        }
+
+        StringBuilder out = new StringBuilder(len + 8).append(text, 0, i);
+
+        for (; i < len; i++)
+        {
+            char c = text.charAt(i);
+
+            if (isPrintable(c))
+            {
+                out.append(c);
+            }
+            else if (c < TABLE_SIZE && table[c] != null)
+            {
+                out.append(table[c]);
+            }
+            else if (c <= maxChar || c == '\n' || c == '\r' || c == '\t')
+            {
+                out.append(c);
+            }
+            else if (Character.isHighSurrogate(c))
+            {
+                out.append('?');
+                i++;
+            }
+            else
+            {
+                out.append('?');
+            }
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * If the character can be sent to the printer as it is.
+     *
+     * @param c The character to check.
+     */
+    private static boolean isPrintable (char c)
+    {
+        return (c >= 0x20 && c <= 0x7E) || c == '\n';
+    }
+
+    /**
+     * If the text contains combining marks from the index on.
+     *
+     * @param text  The text to check.
+     * @param start The index to start at.
+     */
+    private static boolean hasMarks (@NonNull String text, int start)
+    {
+        for (int i = start; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+
+            if (c >= 0x0300 && c <= 0x036F)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Sets the replacement of a Latin-1 symbol unless the printer can
+     * render it.
+     *
+     * @param c           The code point.
+     * @param replacement The text to print instead.
+     */
+    private void put (int c, @NonNull String replacement)
+    {
+        if (c > maxChar)
+        {
+            table[c] = replacement;
+        }
+    }
+
+    /**
+     * Returns the base letter of an accented one like a for ã.
+     *
+     * @param c The accented letter.
+     *
+     * @return null if the letter has no ASCII base.
+     */
+    @Nullable
+    private static String stripMarks (char c)
+    {
+        String base = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+
+        return base.length() > 1 && base.charAt(0) < 0x80 ? base.substring(0, 1) : null;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ Copyright 2013 Sebastián Katzer
+
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package de.appplant.cordova.plugin.printer;
+
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.print.PageRange;
+import android.print.PrintAttributes;
+import android.print.PrintDocumentAdapter;
+import android.support.annotation.NonNull;
+
+/**
+ * Delegates to another adapter and records the layout and write passes
+ * of the print framework as spans of the job trace. The spans cover the
+ * calls to the adapter, adapters that write in the background like the
+ * one of the web view return before the document is complete.
+ */
+class TracedAdapter extends PrintDocumentAdapter
+{
+    // The adapter to trace
+    private final @NonNull PrintDocumentAdapter delegate;
+
+    // The trace of the job
+    private final @NonNull PrintTrace trace;
+
+    /**
+     * Constructor
+     *
+     * @param adapter The adapter to trace.
+     * @param trace   The trace of the job.
+     */
+    TracedAdapter (@NonNull PrintDocumentAdapter adapter, @NonNull PrintTrace trace)
+    {
+        this.delegate = adapter;
+        this.trace    = trace;
+    }
+
+    @Override
+    public void onStart()
+    {
+        delegate.onStart();
+    }
+
+    @Override
+    public void onLayout (PrintAttributes oldAttributes,
+                          PrintAttributes newAttributes,
+                          CancellationSignal cancellationSignal,
+                          LayoutResultCallback callback,
+                          Bundle bundle)
+    {
+        int span = trace.begin("layout");
+
+        try {
+            delegate.onLayout(oldAttributes, newAttributes, cancellationSignal, callback, bundle);
+        } finally {
+            trace.end(span);
+        }
+    }
+
+    @Override
+    public void onWrite (PageRange[] range,
+                         ParcelFileDescriptor dest,
+                         CancellationSignal cancellationSignal,
+                         WriteResultCallback callback)
+    {
+        int span = trace.begin("write");
+
+        try {
+            delegate.onWrite(range, dest, cancellationSignal, callback);
+        } finally {
+            trace.end(span);
+        }
+    }
+
+    @Override
+    public void onFinish()
+    {
+        delegate.onFinish();
+    }
+}
@@ -121,7 +121,9 @@ exports.canPrintItem = function (uri, callback, scope)
 
     var fn = this._createCallbackFn(callback, scope);
 
-    exec(fn, null, 'Printer', 'check', [uri]);
+    exec(fn, function (error) {
+        if (fn) fn(false, error);
+    }, 'Printer', 'check', [uri]);
 };
 
 /**
@@ -139,6 +141,173 @@ exports.getPrintableTypes = function (callback, scope)
     exec(fn, null, 'Printer', 'types', []);
 };
 
+/**
+ * Returns statistics about the print queue like the number of queued
+ * tasks and the average wait and run time in ms.
+ *
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope for the function.
+ *
+ * @return [ Void ]
+ */
+exports.getStats = function (callback, scope)
+{
+    var fn = this._createCallbackFn(callback, scope);
+
+    exec(fn, null, 'Printer', 'stats', []);
+};
+
+/**
+ * Returns the init mode and how long each phase of the warm up took in ms.
+ *
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope for the function.
+ *
+ * @return [ Void ]
+ */
+exports.getStartupStats = function (callback, scope)
+{
+    var fn = this._createCallbackFn(callback, scope);
+
+    exec(fn, null, 'Printer', 'startup', []);
+};
+
+/**
+ * Enables or disables tracing of the print jobs.
+ *
+ * @param [ Boolean ]  enabled  If new jobs get traced.
+ * @param [ Number ]   capacity The number of traces to keep.
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope for the function.
+ *
+ * @return [ Void ]
+ */
+exports.setTracing = function (enabled, capacity, callback, scope)
+{
+    if (typeof capacity == 'function')
+    {
+        scope    = callback;
+        callback = capacity;
+        capacity = 0;
+    }
+
+    var fn = this._createCallbackFn(callback, scope);
+
+    exec(fn, null, 'Printer', 'trace', [enabled !== false, capacity || 0]);
+};
+
+/**
+ * Returns the last finished print jobs from the oldest to the newest.
+ * Each job has jobId, start, end, duration, lines, outcome and backend
+ * with all times in milliseconds.
+ *
+ * @param [ Number ]   since    Only jobs started at or after, as Date or
+ *                              timestamp in milliseconds.
+ * @param [ Number ]   limit    The max number of jobs, 0 for all.
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope for the function.
+ *
+ * @return [ Void ]
+ */
+exports.getJobs = function (since, limit, callback, scope)
+{
+    if (typeof since == 'function')
+    {
+        scope    = limit;
+        callback = since;
+        since    = 0;
+        limit    = 0;
+    }
+
+    if (typeof limit == 'function')
+    {
+        scope    = callback;
+        callback = limit;
+        limit    = 0;
+    }
+
+    var fn = this._createCallbackFn(callback, scope);
+
+    exec(fn, null, 'Printer', 'getJobs', [since instanceof Date ? since.getTime() : since || 0, limit || 0]);
+};
+
+/**
+ * Starts or stops recording the calls to the plugin and the time the
+ * printer took for them. Once stopped the callback receives { ok, uri }
+ * with the uri of the recording.
+ *
+ * @param [ Boolean ]  enabled  Set to false to stop the recording.
+ * @param [ String ]   path     The file to record into, relative to the
+ *                              cache directory unless a file:/// uri.
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope for the function.
+ *
+ * @return [ Void ]
+ */
+exports.setRecording = function (enabled, path, callback, scope)
+{
+    if (typeof path == 'function')
+    {
+        scope    = callback;
+        callback = path;
+        path     = '';
+    }
+
+    var fns = this._createResultFns(callback, scope, 'uri');
+
+    exec(fns[0], fns[1], 'Printer', 'record', [enabled !== false, path || '']);
+};
+
+/**
+ * Replays a recording against a fake printer that takes as long as the
+ * recorded one. The callback receives { ok, summary } once all jobs are
+ * done.
+ *
+ * @param [ String ]   path     The uri returned by setRecording.
+ * @param [ Number ]   speed    1 for the original speed, 10 to replay ten
+ *                              times faster, 0 without any delay.
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope for the function.
+ *
+ * @return [ Void ]
+ */
+exports.replay = function (path, speed, callback, scope)
+{
+    if (typeof speed == 'function')
+    {
+        scope    = callback;
+        callback = speed;
+        speed    = 1;
+    }
+
+    var fns = this._createResultFns(callback, scope, 'summary');
+
+    exec(fns[0], fns[1], 'Printer', 'replay', [path, typeof speed == 'number' ? speed : 1]);
+};
+
+/**
+ * Returns the spans of the last traced jobs with all times in microseconds.
+ *
+ * @param [ Boolean ]  clear    Remove the returned traces.
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope for the function.
+ *
+ * @return [ Void ]
+ */
+exports.getTraces = function (clear, callback, scope)
+{
+    if (typeof clear == 'function')
+    {
+        scope    = callback;
+        callback = clear;
+        clear    = false;
+    }
+
+    var fn = this._createCallbackFn(callback, scope);
+
+    exec(fn, null, 'Printer', 'getTraces', [clear === true]);
+};
+
 /**
  * Displays system interface for selecting a printer.
  *
@@ -171,12 +340,17 @@ exports.pick = function (options, callback, scope)
 };
 
 /**
- * Sends the content to the printer.
+ * Sends the content to the printer. The callback receives { ok, output,
+ * error } where output is the text rendered by the file and memory
+ * backends.
  *
  * @param [ String ]   content  The plain/html text or a file URI.
+ *                              A list of URIs gets printed as one job.
  * @param [ Object ]   options  Options for the print job.
  * @param [ Function ] callback The callback function.
  * @param [ Object ]   scope    The scope for the function.
+ *
+ * @return [ Number ] The job id to cancel the job with.
  */
 exports.print = function (content, options, callback, scope)
 {
@@ -192,14 +366,151 @@ exports.print = function (content, options, callback, scope)
     {
         scope    = callback;
         callback = options;
-        options  = typeof content != 'string' ? content : {};
-        content  = typeof content == 'string' ? content : null;
+        options  = typeof content == 'string' || Array.isArray(content) ? {} : content;
+        content  = typeof content == 'string' || Array.isArray(content) ? content : null;
     }
 
-    var fn     = this._createCallbackFn(callback, scope),
+    var fns    = this._createResultFns(callback, scope, 'output'),
+        params = this._mergeWithDefaults(options || {}),
+        jobId  = params.jobId || this._nextJobId();
+
+    exec(fns[0], fns[1], 'Printer', 'print', [content || '', Object.assign({}, params, { jobId: jobId })]);
+
+    return jobId;
+};
+
+/**
+ * Sends several documents to the printer within one session.
+ * The callback receives { ok, results, error } where results lists the
+ * status and duration of each document.
+ *
+ * @param [ Array ]    documents List of documents to print in that order.
+ * @param [ Object ]   options   Options for the batch like stopOnError.
+ * @param [ Function ] callback  The callback function.
+ * @param [ Object ]   scope     The scope for the function.
+ *
+ * @return [ Number ] The job id to cancel the batch with.
+ */
+exports.printBatch = function (documents, options, callback, scope)
+{
+    if (typeof options == 'function')
+    {
+        scope    = callback;
+        callback = options;
+        options  = {};
+    }
+
+    var fns   = this._createResultFns(callback, scope, 'results'),
+        jobId = (options && options.jobId) || this._nextJobId();
+
+    exec(fns[0], fns[1], 'Printer', 'printBatch', [documents || [], Object.assign({}, options, { jobId: jobId })]);
+
+    return jobId;
+};
+
+/**
+ * Opens a print session for a receipt that gets sent in several chunks.
+ * The callback receives { ok, sessionId, error }.
+ *
+ * @param [ Object ]   options  Options for the print job.
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope for the function.
+ *
+ * @return [ Number ] The job id to cancel the session with.
+ */
+exports.beginPrint = function (options, callback, scope)
+{
+    if (typeof options == 'function')
+    {
+        scope    = callback;
+        callback = options;
+        options  = {};
+    }
+
+    var fns    = this._createResultFns(callback, scope, 'sessionId'),
+        params = this._mergeWithDefaults(options || {}),
+        jobId  = params.jobId || this._nextJobId();
+
+    exec(fns[0], fns[1], 'Printer', 'beginPrint', [Object.assign({}, params, { jobId: jobId })]);
+
+    return jobId;
+};
+
+/**
+ * Sends the next chunk of receipt elements to the print session.
+ * The callback receives { ok, error } once the chunk has been handed over
+ * to the printer, wait for it before sending the next chunk.
+ *
+ * @param [ Number ]   sessionId The id returned by beginPrint.
+ * @param [ Array ]    elements  The elements of the chunk.
+ * @param [ Function ] callback  The callback function.
+ * @param [ Object ]   scope     The scope for the function.
+ */
+exports.appendElements = function (sessionId, elements, callback, scope)
+{
+    var fns = this._createResultFns(callback, scope);
+
+    exec(fns[0], fns[1], 'Printer', 'appendElements', [sessionId, elements || []]);
+};
+
+/**
+ * Closes the print session. The callback receives { ok, output, error }
+ * once all chunks have been printed.
+ *
+ * @param [ Number ]   sessionId The id returned by beginPrint.
+ * @param [ Function ] callback  The callback function.
+ * @param [ Object ]   scope     The scope for the function.
+ */
+exports.endPrint = function (sessionId, callback, scope)
+{
+    var fns = this._createResultFns(callback, scope, 'output');
+
+    exec(fns[0], fns[1], 'Printer', 'endPrint', [sessionId]);
+};
+
+/**
+ * Renders thumbnails of the pages the content would print on. The
+ * callback gets invoked once per page with { ok, index, pages, width,
+ * height, data } where data is an image data uri, and finally with
+ * { ok, pages, done: true }. Errors are passed as { ok: false, error }.
+ *
+ * @param [ String ]   content  The content or file to preview.
+ * @param [ Object ]   options  Options for the print job.
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope for the function.
+ *
+ * @return [ Void ]
+ */
+exports.preview = function (content, options, callback, scope)
+{
+    if (typeof options == 'function')
+    {
+        scope    = callback;
+        callback = options;
+        options  = {};
+    }
+
+    var fns    = this._createResultFns(callback, scope),
         params = this._mergeWithDefaults(options || {});
 
-    exec(fn, null, 'Printer', 'print', [content || '', params]);
+    exec(fns[0], fns[1], 'Printer', 'preview', [content || '', params, params.previewWidth || 320]);
+};
+
+/**
+ * Cancels the print job. Receipts stop after the line in progress,
+ * queued jobs are removed from the queue.
+ *
+ * @param [ Number ]   jobId    The id returned by print, printBatch or beginPrint.
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope for the function.
+ *
+ * @return [ Void ]
+ */
+exports.cancel = function (jobId, callback, scope)
+{
+    var fn = this._createCallbackFn(callback, scope);
+
+    exec(fn, null, 'Printer', 'cancel', [jobId]);
 };
 
 /**
@@ -271,6 +582,65 @@ exports._mergeWithDefaults = function (options)
     return options;
 };
 
+/**
+ * @private
+ *
+ * Returns the id for the next print job.
+ *
+ * @return [ Number ]
+ */
+exports._nextJobId = function ()
+{
+    this._lastJobId = (this._lastJobId || 0) + 1;
+
+    return this._lastJobId;
+};
+
+/**
+ * @private
+ *
+ * Creates the success and the error callback of a call that both invoke
+ * the callback with one result object. The object has ok set to false
+ * and the message in error on failure. On success the value returned by
+ * the plugin is stored under the given key, or merged into the result if
+ * it is an object and no key is given.
+ *
+ * @param [ Function ] callback The callback function.
+ * @param [ Object ]   scope    The scope for the function.
+ * @param [ String ]   key      The name of the field for the value.
+ *
+ * @return [ Array ] The success and the error callback.
+ */
+exports._createResultFns = function (callback, scope, key)
+{
+    var fn = this._createCallbackFn(callback, scope);
+
+    if (!fn)
+        return [null, null];
+
+    function success (value)
+    {
+        var result = { ok: value !== false };
+
+        if (value === false) {
+            result.error = 'Impressão não concluída';
+        } else if (key && value !== undefined && value !== true) {
+            result[key] = value;
+        } else if (!key && typeof value == 'object') {
+            Object.assign(result, value);
+        }
+
+        fn(result);
+    }
+
+    function failure (error)
+    {
+        fn({ ok: false, error: error });
+    }
+
+    return [success, failure];
+};
+
 /**
  * @private
  *